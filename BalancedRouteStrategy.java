@@ -0,0 +1,111 @@
+package ru.moscow.wifi.route;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.moscow.wifi.dto.RouteResponse;
+import ru.moscow.wifi.model.WifiPoint;
+import ru.moscow.wifi.util.WifiPointIndex;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Сбалансированный маршрут: базовый маршрут от маршрутизатора с заходами к точкам Wi-Fi
+ * на непокрытых участках, не дальше max_deviation от маршрута
+ */
+@Component
+public class BalancedRouteStrategy implements RouteStrategy {
+    
+    @Value("${wifi.route.budget.balanced-ms:300}")
+    private long latencyBudgetMs;
+    
+    private static final int COVERAGE_RADIUS = 50; // радиус покрытия Wi-Fi в метрах
+    private static final int SEARCH_RADIUS = 200; // радиус поиска точек вокруг базового маршрута в метрах
+    private static final double INDEX_CELL_SIZE = 100; // размер ячейки индекса точек маршрута в метрах
+    
+    @Override
+    public String getName() {
+        return "balanced";
+    }
+    
+    @Override
+    public long getLatencyBudgetMs() {
+        return latencyBudgetMs;
+    }
+    
+    @Override
+    public RouteStrategyResult buildRoute(RouteContext context) {
+        List<WifiPoint> wifiPoints = context.getSnapshot().findInCorridor(context.getBaseRoute(), SEARCH_RADIUS);
+        WifiPointIndex wifiIndex = new WifiPointIndex(wifiPoints, INDEX_CELL_SIZE, COVERAGE_RADIUS);
+        
+        List<RouteResponse.Coordinate> route = optimizeRoute(context, wifiIndex);
+        return route != null ? new RouteStrategyResult(route, "greedy-detour") : null;
+    }
+    
+    /**
+     * Оптимизировать маршрут для максимального покрытия
+     * Если середина сегмента не покрыта, в маршрут добавляется ближайшая точка Wi-Fi в пределах отклонения
+     *
+     * @return маршрут или null, если срок построения истёк
+     */
+    private List<RouteResponse.Coordinate> optimizeRoute(RouteContext context, WifiPointIndex wifiIndex) {
+        List<double[]> baseRoute = context.getBaseRoute();
+        int maxDeviation = context.getMaxDeviation();
+        List<RouteResponse.Coordinate> optimized = new ArrayList<>();
+        
+        for (int i = 0; i < baseRoute.size(); i++) {
+            if (context.isExpired()) {
+                return null;
+            }
+            double[] point = baseRoute.get(i);
+            optimized.add(new RouteResponse.Coordinate(point[0], point[1]));
+            
+            // Если не последняя точка, проверяем покрытие сегмента
+            if (i < baseRoute.size() - 1) {
+                double[] nextPoint = baseRoute.get(i + 1);
+                
+                // Проверяем, покрыт ли сегмент Wi-Fi
+                boolean isCovered = isSegmentCovered(point[0], point[1], 
+                                                     nextPoint[0], nextPoint[1], 
+                                                     wifiIndex);
+                
+                // Если не покрыт, ищем ближайшую точку Wi-Fi
+                if (!isCovered) {
+                    WifiPoint nearest = findNearestWifiPoint(
+                            (point[0] + nextPoint[0]) / 2,
+                            (point[1] + nextPoint[1]) / 2,
+                            wifiIndex, maxDeviation);
+                    
+                    if (nearest != null) {
+                        optimized.add(new RouteResponse.Coordinate(
+                                nearest.getLatitude(), nearest.getLongitude()));
+                    }
+                }
+            }
+        }
+        
+        return optimized;
+    }
+    
+    /**
+     * Проверить, покрыт ли сегмент маршрута Wi-Fi
+     */
+    private boolean isSegmentCovered(double lat1, double lng1, double lat2, double lng2,
+                                    WifiPointIndex wifiIndex) {
+        // Упрощённая проверка: есть ли точка Wi-Fi, которая покрывает середину сегмента
+        double midLat = (lat1 + lat2) / 2;
+        double midLng = (lng1 + lng2) / 2;
+        
+        return wifiIndex.hasPointWithin(midLat, midLng, COVERAGE_RADIUS);
+    }
+    
+    /**
+     * Найти ближайшую точку Wi-Fi
+     */
+    private WifiPoint findNearestWifiPoint(double lat, double lng, 
+                                          WifiPointIndex wifiIndex, 
+                                          int maxDistance) {
+        int nearest = wifiIndex.findNearest(lat, lng, maxDistance);
+        return nearest != -1 ? wifiIndex.get(nearest) : null;
+    }
+}
@@ -0,0 +1,282 @@
+package ru.moscow.wifi.graph;
+
+import ru.moscow.wifi.util.GeometryUtil;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Поиск пути в компактном графе (CompactWifiGraph)
+ * Те же алгоритмы, что и в GraphPathFinder, но без объектов узлов и рёбер во время поиска
+ */
+public class CompactPathFinder {
+    
+    static final int EXPIRY_CHECK_INTERVAL = 256; // узлов между проверками срока поиска
+    
+    /**
+     * Найти путь от A до B выбранным алгоритмом
+     *
+     * @param query граф с добавленными точками A и B
+     * @param wifiPriority приоритет точек Wi-Fi (1.0 = без приоритета, < 1.0 = приоритет выше)
+     * @param algorithm алгоритм поиска
+     * @return путь и количество обработанных узлов (путь null, если не найден)
+     */
+    public PathResult findPath(CompactWifiGraph.Query query, double wifiPriority, SearchAlgorithm algorithm) {
+        return findPath(query, wifiPriority, algorithm, Long.MAX_VALUE);
+    }
+    
+    /**
+     * Найти путь от A до B, прекратив поиск после deadline
+     *
+     * @param deadline время System.currentTimeMillis(), после которого (или после прерывания потока)
+     *                 поиск останавливается и возвращает путь null
+     */
+    public PathResult findPath(CompactWifiGraph.Query query, double wifiPriority, SearchAlgorithm algorithm,
+                               long deadline) {
+        if (algorithm == SearchAlgorithm.CH) {
+            throw new IllegalArgumentException("Поиск по иерархии сжатия выполняет HierarchyPathFinder");
+        }
+        if (algorithm == SearchAlgorithm.BIDIRECTIONAL) {
+            return searchBidirectional(query, wifiPriority, deadline);
+        }
+        
+        double heuristicFactor = 0;
+        if (algorithm == SearchAlgorithm.ASTAR) {
+            // Та же допустимая эвристика, что и в GraphPathFinder
+            heuristicFactor = WifiGraph.COVERED_EDGE_FACTOR * Math.max(0, Math.min(1.0, wifiPriority));
+        }
+        
+        int start = query.getStartNode();
+        int end = query.getEndNode();
+        int expanded = 0;
+        
+        SearchState state = SearchState.acquire(query.getOrdinalCount());
+        try {
+            Expansion expansion = new Expansion(query, wifiPriority, heuristicFactor,
+                    state, null, true, new Meeting());
+            state.update(start, 0.0, -1);
+            state.getQueue().add(start, expansion.heuristic(start));
+            
+            NodeHeap queue = state.getQueue();
+            while (!queue.isEmpty()) {
+                int current = queue.poll();
+                
+                if (current == end) {
+                    return new PathResult(buildPath(query, state, null, end), algorithm, expanded);
+                }
+                
+                if (state.isSettled(current)) {
+                    continue;
+                }
+                
+                state.settle(current);
+                expanded++;
+                if (isExpired(expanded, deadline)) {
+                    return new PathResult(null, algorithm, expanded);
+                }
+                expansion.expand(current);
+            }
+            
+            return new PathResult(null, algorithm, expanded);
+        } finally {
+            state.release();
+        }
+    }
+    
+    /**
+     * Двунаправленный Dijkstra с тем же критерием остановки, что и в GraphPathFinder
+     */
+    private PathResult searchBidirectional(CompactWifiGraph.Query query, double wifiPriority, long deadline) {
+        int start = query.getStartNode();
+        int end = query.getEndNode();
+        int expanded = 0;
+        
+        SearchState forward = SearchState.acquire(query.getOrdinalCount());
+        SearchState backward = SearchState.acquire(query.getOrdinalCount());
+        try {
+            // Обе стороны обновляют общий узел встречи
+            Meeting meeting = new Meeting();
+            Expansion forwardExpansion = new Expansion(query, wifiPriority, 0, forward, backward, true, meeting);
+            Expansion backwardExpansion = new Expansion(query, wifiPriority, 0, backward, forward, false, meeting);
+            
+            forward.update(start, 0.0, -1);
+            forward.getQueue().add(start, 0.0);
+            backward.update(end, 0.0, -1);
+            backward.getQueue().add(end, 0.0);
+            
+            while (true) {
+                skipSettled(forward);
+                skipSettled(backward);
+                
+                NodeHeap forwardQueue = forward.getQueue();
+                NodeHeap backwardQueue = backward.getQueue();
+                if (forwardQueue.isEmpty() || backwardQueue.isEmpty()
+                        || forwardQueue.peekKey() + backwardQueue.peekKey() >= meeting.best) {
+                    break;
+                }
+                
+                boolean isForward = forwardQueue.peekKey() <= backwardQueue.peekKey();
+                SearchState state = isForward ? forward : backward;
+                int current = state.getQueue().poll();
+                state.settle(current);
+                expanded++;
+                if (isExpired(expanded, deadline)) {
+                    return new PathResult(null, SearchAlgorithm.BIDIRECTIONAL, expanded);
+                }
+                (isForward ? forwardExpansion : backwardExpansion).expand(current);
+            }
+            
+            if (meeting.node == -1) {
+                return new PathResult(null, SearchAlgorithm.BIDIRECTIONAL, expanded);
+            }
+            
+            return new PathResult(buildPath(query, forward, backward, meeting.node),
+                    SearchAlgorithm.BIDIRECTIONAL, expanded);
+        } finally {
+            forward.release();
+            backward.release();
+        }
+    }
+    
+    /**
+     * Проверка срока раз в EXPIRY_CHECK_INTERVAL обработанных узлов, чтобы не читать часы на каждом узле
+     */
+    static boolean isExpired(int expanded, long deadline) {
+        if (deadline == Long.MAX_VALUE || expanded % EXPIRY_CHECK_INTERVAL != 0) {
+            return false;
+        }
+        return System.currentTimeMillis() > deadline || Thread.currentThread().isInterrupted();
+    }
+    
+    private void skipSettled(SearchState state) {
+        NodeHeap queue = state.getQueue();
+        while (!queue.isEmpty() && state.isSettled(queue.peekNode())) {
+            queue.poll();
+        }
+    }
+    
+    /**
+     * Построить путь: от A до узла node по прямому поиску и (если есть) от node до B по обратному
+     */
+    private List<GraphNode> buildPath(CompactWifiGraph.Query query, SearchState forward,
+                                      SearchState backward, int node) {
+        List<GraphNode> path = new ArrayList<>();
+        int current = node;
+        while (current != -1) {
+            path.add(query.toGraphNode(current));
+            current = forward.getPrevious(current);
+        }
+        Collections.reverse(path);
+        
+        if (backward != null) {
+            current = backward.getPrevious(node);
+            while (current != -1) {
+                path.add(query.toGraphNode(current));
+                current = backward.getPrevious(current);
+            }
+        }
+        
+        return path;
+    }
+    
+    /**
+     * Лучший найденный путь через узел встречи (для двунаправленного поиска)
+     */
+    private static class Meeting {
+        double best = Double.MAX_VALUE;
+        int node = -1;
+    }
+    
+    /**
+     * Обработка соседей узла в одном направлении поиска
+     */
+    private static class Expansion {
+        private final CompactWifiGraph.Query query;
+        private final CompactWifiGraph graph;
+        private final double wifiPriority;
+        private final double heuristicFactor;
+        private final SearchState state;
+        private final SearchState other; // состояние встречного поиска или null
+        private final boolean forward;
+        private final Meeting meeting;
+        
+        Expansion(CompactWifiGraph.Query query, double wifiPriority, double heuristicFactor,
+                  SearchState state, SearchState other, boolean forward, Meeting meeting) {
+            this.query = query;
+            this.graph = query.getGraph();
+            this.wifiPriority = wifiPriority;
+            this.heuristicFactor = heuristicFactor;
+            this.state = state;
+            this.other = other;
+            this.forward = forward;
+            this.meeting = meeting;
+        }
+        
+        void expand(int node) {
+            int start = query.getStartNode();
+            int end = query.getEndNode();
+            
+            if (node == start || node == end) {
+                int[] targets = node == start ? query.getStartTargets() : query.getEndTargets();
+                float[] weights = node == start ? query.getStartWeights() : query.getEndWeights();
+                for (int i = 0; i < targets.length; i++) {
+                    relax(node, targets[i], weights[i]);
+                }
+                if (!Float.isNaN(query.getDirectWeight())) {
+                    relax(node, node == start ? end : start, query.getDirectWeight());
+                }
+                return;
+            }
+            
+            for (int e = graph.getEdgeStart(node); e < graph.getEdgeEnd(node); e++) {
+                relax(node, graph.getTarget(e), graph.getWeight(e));
+            }
+            
+            float toStart = query.getWeightToStart(node);
+            if (!Float.isNaN(toStart)) {
+                relax(node, start, toStart);
+            }
+            float toEnd = query.getWeightToEnd(node);
+            if (!Float.isNaN(toEnd)) {
+                relax(node, end, toEnd);
+            }
+        }
+        
+        private void relax(int node, int neighbor, double weight) {
+            if (state.isSettled(neighbor)) {
+                return;
+            }
+            
+            // Множитель приоритета относится к узлу, в который ведёт ребро в прямом направлении
+            int target = forward ? neighbor : node;
+            if (target < graph.getNodeCount()) {
+                weight *= wifiPriority;
+            }
+            
+            double newDistance = state.getDistance(node) + weight;
+            if (newDistance < state.getDistance(neighbor)) {
+                state.update(neighbor, newDistance, node);
+                state.getQueue().add(neighbor, newDistance + heuristic(neighbor));
+            }
+            
+            if (other != null) {
+                double otherDistance = other.getDistance(neighbor);
+                double total = state.getDistance(neighbor) + otherDistance;
+                if (otherDistance != Double.MAX_VALUE && total < meeting.best) {
+                    meeting.best = total;
+                    meeting.node = neighbor;
+                }
+            }
+        }
+        
+        double heuristic(int node) {
+            if (heuristicFactor == 0) {
+                return 0;
+            }
+            int end = query.getEndNode();
+            return heuristicFactor * GeometryUtil.calculateDistance(
+                    query.getLat(node), query.getLng(node), query.getLat(end), query.getLng(end));
+        }
+    }
+}
@@ -0,0 +1,483 @@
+package ru.moscow.wifi.graph;
+
+import ru.moscow.wifi.model.WifiPoint;
+import ru.moscow.wifi.util.GeometryUtil;
+import ru.moscow.wifi.util.SpatialGrid;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Компактный граф точек Wi-Fi в формате CSR (compressed sparse row)
+ *
+ * Рёбра узла i лежат в targets/weights в диапазоне [offsets[i], offsets[i + 1]).
+ * Вместо отдельного объекта на каждое ребро граф хранит несколько плоских массивов,
+ * веса те же, что и в WifiGraph. Точки A и B в граф не входят, их добавляет Query.
+ * Массивы рёбер сохраняются в файл (save) и читаются при старте через отображение файла в память (load)
+ */
+public class CompactWifiGraph {
+    private static final double MAX_EDGE_DISTANCE = 500; // максимальное расстояние между узлами в метрах
+    private static final int FILE_MAGIC = 0x57464347; // "WFCG"
+    private static final int FILE_VERSION = 1;
+    private static final int FILE_HEADER_BYTES = 4 + 4 + 4 + 4 + 8 + 8 + 8;
+    
+    private final WifiPoint[] points;
+    private final double[] lats;
+    private final double[] lngs;
+    private final int[] offsets;
+    private final int[] targets;
+    private final float[] weights;
+    private final SpatialGrid index;
+    
+    /**
+     * Построить граф из списка точек Wi-Fi (порядковый номер узла = индекс точки в списке)
+     */
+    public CompactWifiGraph(List<WifiPoint> wifiPoints) {
+        int n = wifiPoints.size();
+        this.points = wifiPoints.toArray(new WifiPoint[0]);
+        this.lats = new double[n];
+        this.lngs = new double[n];
+        for (int i = 0; i < n; i++) {
+            lats[i] = points[i].getLatitude();
+            lngs[i] = points[i].getLongitude();
+        }
+        this.index = new SpatialGrid(lats, lngs, MAX_EDGE_DISTANCE);
+        
+        // Сначала собираем пары (i < j) во временные массивы, затем раскладываем по строкам
+        EdgeBuffer buffer = new EdgeBuffer();
+        for (int i = 0; i < n; i++) {
+            int from = i;
+            index.forEachCandidate(lats[i], lngs[i], MAX_EDGE_DISTANCE, j -> {
+                if (j <= from) {
+                    return;
+                }
+                double distance = GeometryUtil.calculateDistance(lats[from], lngs[from], lats[j], lngs[j]);
+                if (distance <= MAX_EDGE_DISTANCE) {
+                    // Оба узла - точки Wi-Fi, поэтому ребро всегда с покрытием
+                    buffer.add(from, j, (float) (distance * WifiGraph.COVERED_EDGE_FACTOR));
+                }
+            });
+        }
+        
+        this.offsets = new int[n + 1];
+        for (int e = 0; e < buffer.size; e++) {
+            offsets[buffer.from[e] + 1]++;
+            offsets[buffer.to[e] + 1]++;
+        }
+        for (int i = 0; i < n; i++) {
+            offsets[i + 1] += offsets[i];
+        }
+        
+        this.targets = new int[buffer.size * 2];
+        this.weights = new float[buffer.size * 2];
+        int[] position = Arrays.copyOf(offsets, n);
+        for (int e = 0; e < buffer.size; e++) {
+            int a = buffer.from[e];
+            int b = buffer.to[e];
+            targets[position[a]] = b;
+            weights[position[a]++] = buffer.weight[e];
+            targets[position[b]] = a;
+            weights[position[b]++] = buffer.weight[e];
+        }
+    }
+    
+    /**
+     * Граф из готовых массивов рёбер (загрузка из файла)
+     */
+    private CompactWifiGraph(WifiPoint[] points, double[] lats, double[] lngs,
+                             int[] offsets, int[] targets, float[] weights) {
+        this.points = points;
+        this.lats = lats;
+        this.lngs = lngs;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+        this.index = new SpatialGrid(lats, lngs, MAX_EDGE_DISTANCE);
+    }
+    
+    /**
+     * Сохранить массивы рёбер в файл, чтобы после перезапуска не строить граф заново
+     * Вместе с рёбрами сохраняются контрольная сумма координат узлов и параметры построения
+     */
+    public void save(Path file) throws IOException {
+        Path dir = file.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        // У каждого процесса свой временный файл, готовый файл подменяется атомарным переименованием
+        Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                out.writeInt(FILE_MAGIC);
+                out.writeInt(FILE_VERSION);
+                out.writeInt(points.length);
+                out.writeInt(targets.length);
+                out.writeDouble(MAX_EDGE_DISTANCE);
+                out.writeDouble(WifiGraph.COVERED_EDGE_FACTOR);
+                out.writeLong(coordinatesHash(lats, lngs));
+                for (int value : offsets) {
+                    out.writeInt(value);
+                }
+                for (int value : targets) {
+                    out.writeInt(value);
+                }
+                for (float value : weights) {
+                    out.writeFloat(value);
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+    
+    /**
+     * Загрузить граф из файла для тех же точек
+     * Файл отображается в память и копируется в массивы целиком, без разбора по одному числу;
+     * страницы файла в кэше ОС общие для всех процессов на машине
+     *
+     * @return граф или null, если файла нет, он другой версии или построен для других точек
+     */
+    public static CompactWifiGraph load(Path file, List<WifiPoint> wifiPoints) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        
+        int n = wifiPoints.size();
+        WifiPoint[] points = wifiPoints.toArray(new WifiPoint[0]);
+        double[] lats = new double[n];
+        double[] lngs = new double[n];
+        for (int i = 0; i < n; i++) {
+            lats[i] = points[i].getLatitude();
+            lngs[i] = points[i].getLongitude();
+        }
+        
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < FILE_HEADER_BYTES) {
+                return null;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt() != FILE_MAGIC || buffer.getInt() != FILE_VERSION) {
+                return null;
+            }
+            int nodeCount = buffer.getInt();
+            int edgeCount = buffer.getInt();
+            if (nodeCount != n
+                    || buffer.getDouble() != MAX_EDGE_DISTANCE
+                    || buffer.getDouble() != WifiGraph.COVERED_EDGE_FACTOR
+                    || buffer.getLong() != coordinatesHash(lats, lngs)
+                    || size != FILE_HEADER_BYTES + (long) (n + 1) * 4 + (long) edgeCount * 8) {
+                return null;
+            }
+            
+            int[] offsets = new int[n + 1];
+            int[] targets = new int[edgeCount];
+            float[] weights = new float[edgeCount];
+            buffer.asIntBuffer().get(offsets);
+            skip(buffer, offsets.length * 4);
+            buffer.asIntBuffer().get(targets);
+            skip(buffer, targets.length * 4);
+            buffer.asFloatBuffer().get(weights);
+            return new CompactWifiGraph(points, lats, lngs, offsets, targets, weights);
+        }
+    }
+    
+    private static void skip(ByteBuffer buffer, int bytes) {
+        buffer.position(buffer.position() + bytes);
+    }
+    
+    /**
+     * Контрольная сумма координат узлов: рёбра однозначно определяются координатами
+     */
+    private static long coordinatesHash(double[] lats, double[] lngs) {
+        long hash = lats.length;
+        for (int i = 0; i < lats.length; i++) {
+            hash = hash * 31 + Double.doubleToLongBits(lats[i]);
+            hash = hash * 31 + Double.doubleToLongBits(lngs[i]);
+        }
+        return hash;
+    }
+    
+    /**
+     * Получить количество узлов (без точек A и B)
+     */
+    public int getNodeCount() {
+        return points.length;
+    }
+    
+    /**
+     * Получить количество рёбер (каждое ребро хранится в обе стороны, считается один раз)
+     */
+    public int getEdgeCount() {
+        return targets.length / 2;
+    }
+    
+    public WifiPoint getWifiPoint(int node) {
+        return points[node];
+    }
+    
+    public double getLat(int node) {
+        return lats[node];
+    }
+    
+    public double getLng(int node) {
+        return lngs[node];
+    }
+    
+    /**
+     * Номер первого ребра узла (для getTarget/getWeight)
+     */
+    public int getEdgeStart(int node) {
+        return offsets[node];
+    }
+    
+    /**
+     * Номер ребра, следующего за последним ребром узла
+     */
+    public int getEdgeEnd(int node) {
+        return offsets[node + 1];
+    }
+    
+    public int getTarget(int edge) {
+        return targets[edge];
+    }
+    
+    public float getWeight(int edge) {
+        return weights[edge];
+    }
+    
+    /**
+     * Контрольная сумма структуры графа (координаты и рёбра)
+     * Нужна, чтобы не использовать сохранённые данные, построенные для другого графа
+     */
+    public long fingerprint() {
+        long hash = points.length;
+        for (int i = 0; i < points.length; i++) {
+            hash = hash * 31 + Double.doubleToLongBits(lats[i]);
+            hash = hash * 31 + Double.doubleToLongBits(lngs[i]);
+        }
+        for (int i = 0; i < targets.length; i++) {
+            hash = hash * 31 + targets[i];
+            hash = hash * 31 + Float.floatToIntBits(weights[i]);
+        }
+        return hash;
+    }
+    
+    /**
+     * Оценить объём памяти, занятый массивами графа, в байтах
+     * (без самих объектов WifiPoint, они общие с остальным приложением)
+     */
+    public long estimateHeapBytes() {
+        return (long) points.length * 4
+                + (long) lats.length * 8 * 2
+                + (long) offsets.length * 4
+                + (long) targets.length * (4 + 4)
+                + (long) index.size() * 4;
+    }
+    
+    /**
+     * Связи произвольной точки с узлами графа в пределах MAX_EDGE_DISTANCE
+     * (ребро с покрытием, т.к. узел - точка Wi-Fi)
+     */
+    void forEachLink(double lat, double lng, LinkConsumer action) {
+        index.forEachCandidate(lat, lng, MAX_EDGE_DISTANCE, j -> {
+            double distance = GeometryUtil.calculateDistance(lat, lng, lats[j], lngs[j]);
+            if (distance <= MAX_EDGE_DISTANCE) {
+                action.accept(j, (float) (distance * WifiGraph.COVERED_EDGE_FACTOR));
+            }
+        });
+    }
+    
+    /**
+     * Вес прямого ребра между двумя точками вне графа (без покрытия) или NaN, если они слишком далеко
+     */
+    static float directWeight(double lat1, double lng1, double lat2, double lng2) {
+        double distance = GeometryUtil.calculateDistance(lat1, lng1, lat2, lng2);
+        return distance <= MAX_EDGE_DISTANCE ? (float) (distance * WifiGraph.UNCOVERED_EDGE_FACTOR) : Float.NaN;
+    }
+    
+    /**
+     * Добавить точки A и B для одного запроса
+     * Граф не изменяется: связи A и B с узлами графа хранятся в объекте Query
+     */
+    public Query withEndpoints(double fromLat, double fromLng, double toLat, double toLng) {
+        return new Query(fromLat, fromLng, toLat, toLng);
+    }
+    
+    /**
+     * Точки A (номер n) и B (номер n + 1) и их рёбра к узлам графа
+     */
+    public class Query {
+        private final double fromLat;
+        private final double fromLng;
+        private final double toLat;
+        private final double toLng;
+        private final int[] startTargets;  // отсортированы для бинарного поиска
+        private final float[] startWeights;
+        private final int[] endTargets;    // отсортированы для бинарного поиска
+        private final float[] endWeights;
+        private final float directWeight;  // ребро A-B или NaN
+        
+        private Query(double fromLat, double fromLng, double toLat, double toLng) {
+            this.fromLat = fromLat;
+            this.fromLng = fromLng;
+            this.toLat = toLat;
+            this.toLng = toLng;
+            
+            EdgeBuffer start = new EdgeBuffer();
+            EdgeBuffer end = new EdgeBuffer();
+            forEachLink(fromLat, fromLng, (node, weight) -> start.add(-1, node, weight));
+            forEachLink(toLat, toLng, (node, weight) -> end.add(-1, node, weight));
+            start.sortByTarget();
+            end.sortByTarget();
+            this.startTargets = Arrays.copyOf(start.to, start.size);
+            this.startWeights = Arrays.copyOf(start.weight, start.size);
+            this.endTargets = Arrays.copyOf(end.to, end.size);
+            this.endWeights = Arrays.copyOf(end.weight, end.size);
+            
+            this.directWeight = directWeight(fromLat, fromLng, toLat, toLng);
+        }
+        
+        public CompactWifiGraph getGraph() {
+            return CompactWifiGraph.this;
+        }
+        
+        public int getStartNode() {
+            return points.length;
+        }
+        
+        public int getEndNode() {
+            return points.length + 1;
+        }
+        
+        /**
+         * Количество номеров узлов вместе с A и B
+         */
+        public int getOrdinalCount() {
+            return points.length + 2;
+        }
+        
+        public double getLat(int node) {
+            if (node == getStartNode()) {
+                return fromLat;
+            }
+            if (node == getEndNode()) {
+                return toLat;
+            }
+            return lats[node];
+        }
+        
+        public double getLng(int node) {
+            if (node == getStartNode()) {
+                return fromLng;
+            }
+            if (node == getEndNode()) {
+                return toLng;
+            }
+            return lngs[node];
+        }
+        
+        /**
+         * Узел для результата поиска (точка Wi-Fi или точка A/B с id -1/-2)
+         */
+        GraphNode toGraphNode(int node) {
+            if (node == getStartNode()) {
+                return new GraphNode(-1, fromLat, fromLng);
+            }
+            if (node == getEndNode()) {
+                return new GraphNode(-2, toLat, toLng);
+            }
+            return new GraphNode(node, points[node]);
+        }
+        
+        int[] getStartTargets() {
+            return startTargets;
+        }
+        
+        float[] getStartWeights() {
+            return startWeights;
+        }
+        
+        int[] getEndTargets() {
+            return endTargets;
+        }
+        
+        float[] getEndWeights() {
+            return endWeights;
+        }
+        
+        float getDirectWeight() {
+            return directWeight;
+        }
+        
+        /**
+         * Вес ребра от узла графа до точки A или NaN, если ребра нет
+         */
+        float getWeightToStart(int node) {
+            int i = Arrays.binarySearch(startTargets, node);
+            return i >= 0 ? startWeights[i] : Float.NaN;
+        }
+        
+        /**
+         * Вес ребра от узла графа до точки B или NaN, если ребра нет
+         */
+        float getWeightToEnd(int node) {
+            int i = Arrays.binarySearch(endTargets, node);
+            return i >= 0 ? endWeights[i] : Float.NaN;
+        }
+    }
+    
+    /**
+     * Получатель связи точки с узлом графа
+     */
+    interface LinkConsumer {
+        void accept(int node, float weight);
+    }
+    
+    /**
+     * Растущий буфер рёбер на примитивных массивах
+     */
+    private static class EdgeBuffer {
+        int[] from = new int[16];
+        int[] to = new int[16];
+        float[] weight = new float[16];
+        int size = 0;
+        
+        void add(int a, int b, float w) {
+            if (size == from.length) {
+                from = Arrays.copyOf(from, size * 2);
+                to = Arrays.copyOf(to, size * 2);
+                weight = Arrays.copyOf(weight, size * 2);
+            }
+            from[size] = a;
+            to[size] = b;
+            weight[size] = w;
+            size++;
+        }
+        
+        /**
+         * Отсортировать рёбра по узлу назначения (поле from не сохраняется)
+         */
+        void sortByTarget() {
+            long[] packed = new long[size];
+            for (int i = 0; i < size; i++) {
+                packed[i] = ((long) to[i] << 32) | (Float.floatToIntBits(weight[i]) & 0xffffffffL);
+            }
+            Arrays.sort(packed);
+            for (int i = 0; i < size; i++) {
+                to[i] = (int) (packed[i] >>> 32);
+                weight[i] = Float.intBitsToFloat((int) packed[i]);
+            }
+        }
+    }
+}
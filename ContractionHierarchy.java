@@ -0,0 +1,419 @@
+package ru.moscow.wifi.graph;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * Иерархия сжатия (contraction hierarchies) для базового графа Wi-Fi
+ *
+ * Узлы по очереди удаляются из графа, а чтобы расстояния между оставшимися узлами
+ * не изменились, добавляются рёбра-сокращения. Для каждого узла хранятся рёбра
+ * только к узлам с большим рангом (восходящий граф), поиск от A и от B идёт только вверх.
+ * Рёбра графа симметричны, поэтому один восходящий граф обслуживает оба направления поиска
+ */
+public class ContractionHierarchy {
+    private static final int FILE_MAGIC = 0x57464348; // "WFCH"
+    private static final int FILE_VERSION = 1;
+    private static final int WITNESS_SETTLED_LIMIT = 300; // ограничение локального поиска свидетеля при сжатии
+    private static final int PRIORITY_SETTLED_LIMIT = 20;  // то же при оценке приоритета (достаточно грубой оценки)
+    
+    private final long graphFingerprint;
+    private final int[] rank;
+    private final int[] upOffsets;
+    private final int[] upTargets;
+    private final float[] upWeights;
+    private final int[] upMiddle; // узел, через который проходит сокращение, или -1 для исходного ребра
+    
+    private ContractionHierarchy(long graphFingerprint, int[] rank, int[] upOffsets,
+                                 int[] upTargets, float[] upWeights, int[] upMiddle) {
+        this.graphFingerprint = graphFingerprint;
+        this.rank = rank;
+        this.upOffsets = upOffsets;
+        this.upTargets = upTargets;
+        this.upWeights = upWeights;
+        this.upMiddle = upMiddle;
+    }
+    
+    /**
+     * Построить иерархию: упорядочить узлы по разнице рёбер (сокращения минус удалённые рёбра)
+     * с ленивым пересчётом приоритета и сжать их по очереди
+     */
+    public static ContractionHierarchy build(CompactWifiGraph graph) {
+        int n = graph.getNodeCount();
+        Contractor contractor = new Contractor(graph);
+        
+        NodeHeap queue = new NodeHeap();
+        for (int v = 0; v < n; v++) {
+            queue.add(v, contractor.priority(v));
+        }
+        
+        int[] rank = new int[n];
+        int[][] upTargets = new int[n][];
+        float[][] upWeights = new float[n][];
+        int[][] upMiddle = new int[n][];
+        int nextRank = 0;
+        
+        while (!queue.isEmpty()) {
+            int v = queue.poll();
+            if (contractor.isContracted(v)) {
+                continue;
+            }
+            
+            // Ленивое обновление: если приоритет вырос и узел больше не минимальный, откладываем его
+            double priority = contractor.priority(v);
+            if (!queue.isEmpty() && priority > queue.peekKey()) {
+                queue.add(v, priority);
+                continue;
+            }
+            
+            // Рёбра к ещё не сжатым соседям становятся восходящими рёбрами узла
+            int degree = contractor.size[v];
+            upTargets[v] = Arrays.copyOf(contractor.targets[v], degree);
+            upWeights[v] = Arrays.copyOf(contractor.weights[v], degree);
+            upMiddle[v] = Arrays.copyOf(contractor.middles[v], degree);
+            
+            contractor.contract(v);
+            rank[v] = nextRank++;
+        }
+        
+        // Собираем восходящий граф в формат CSR
+        int[] offsets = new int[n + 1];
+        for (int v = 0; v < n; v++) {
+            offsets[v + 1] = offsets[v] + upTargets[v].length;
+        }
+        int[] targets = new int[offsets[n]];
+        float[] weights = new float[offsets[n]];
+        int[] middles = new int[offsets[n]];
+        for (int v = 0; v < n; v++) {
+            System.arraycopy(upTargets[v], 0, targets, offsets[v], upTargets[v].length);
+            System.arraycopy(upWeights[v], 0, weights, offsets[v], upWeights[v].length);
+            System.arraycopy(upMiddle[v], 0, middles, offsets[v], upMiddle[v].length);
+        }
+        
+        return new ContractionHierarchy(graph.fingerprint(), rank, offsets, targets, weights, middles);
+    }
+    
+    /**
+     * Проверить, построена ли иерархия для этого графа
+     */
+    public boolean matches(CompactWifiGraph graph) {
+        return graphFingerprint == graph.fingerprint() && rank.length == graph.getNodeCount();
+    }
+    
+    public int getNodeCount() {
+        return rank.length;
+    }
+    
+    /**
+     * Количество восходящих рёбер (исходные рёбра + сокращения)
+     */
+    public int getUpwardEdgeCount() {
+        return upTargets.length;
+    }
+    
+    /**
+     * Количество добавленных сокращений
+     */
+    public int getShortcutCount() {
+        int count = 0;
+        for (int middle : upMiddle) {
+            if (middle != -1) {
+                count++;
+            }
+        }
+        return count;
+    }
+    
+    int getEdgeStart(int node) {
+        return upOffsets[node];
+    }
+    
+    int getEdgeEnd(int node) {
+        return upOffsets[node + 1];
+    }
+    
+    int getTarget(int edge) {
+        return upTargets[edge];
+    }
+    
+    float getWeight(int edge) {
+        return upWeights[edge];
+    }
+    
+    int getMiddle(int edge) {
+        return upMiddle[edge];
+    }
+    
+    int getRank(int node) {
+        return rank[node];
+    }
+    
+    /**
+     * Найти восходящее ребро между двумя соседними в иерархии узлами или -1
+     */
+    int findEdge(int a, int b) {
+        int lower = rank[a] < rank[b] ? a : b;
+        int upper = lower == a ? b : a;
+        for (int e = upOffsets[lower]; e < upOffsets[lower + 1]; e++) {
+            if (upTargets[e] == upper) {
+                return e;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Сохранить иерархию в файл, чтобы не сжимать граф заново после перезапуска
+     */
+    public void save(Path file) throws IOException {
+        Path dir = file.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        // У каждого процесса свой временный файл, готовый файл подменяется атомарным переименованием
+        Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                out.writeInt(FILE_MAGIC);
+                out.writeInt(FILE_VERSION);
+                out.writeLong(graphFingerprint);
+                out.writeInt(rank.length);
+                out.writeInt(upTargets.length);
+                for (int value : rank) {
+                    out.writeInt(value);
+                }
+                for (int value : upOffsets) {
+                    out.writeInt(value);
+                }
+                for (int i = 0; i < upTargets.length; i++) {
+                    out.writeInt(upTargets[i]);
+                    out.writeFloat(upWeights[i]);
+                    out.writeInt(upMiddle[i]);
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+    
+    /**
+     * Загрузить иерархию из файла
+     *
+     * @return иерархия или null, если файла нет, он другой версии или построен для другого графа
+     */
+    public static ContractionHierarchy load(Path file, CompactWifiGraph graph) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+                return null;
+            }
+            long fingerprint = in.readLong();
+            int n = in.readInt();
+            int edgeCount = in.readInt();
+            if (fingerprint != graph.fingerprint() || n != graph.getNodeCount()) {
+                return null;
+            }
+            
+            int[] rank = new int[n];
+            for (int i = 0; i < n; i++) {
+                rank[i] = in.readInt();
+            }
+            int[] offsets = new int[n + 1];
+            for (int i = 0; i <= n; i++) {
+                offsets[i] = in.readInt();
+            }
+            int[] targets = new int[edgeCount];
+            float[] weights = new float[edgeCount];
+            int[] middles = new int[edgeCount];
+            for (int i = 0; i < edgeCount; i++) {
+                targets[i] = in.readInt();
+                weights[i] = in.readFloat();
+                middles[i] = in.readInt();
+            }
+            return new ContractionHierarchy(fingerprint, rank, offsets, targets, weights, middles);
+        }
+    }
+    
+    /**
+     * Изменяемый граф на время сжатия: списки рёбер к ещё не сжатым соседям
+     */
+    private static class Contractor {
+        final int[][] targets;
+        final float[][] weights;
+        final int[][] middles;
+        final int[] size;
+        final boolean[] contracted;
+        final int[] contractedNeighbors; // сколько соседей узла уже сжато (для равномерности порядка)
+        
+        // Состояние локального поиска свидетеля
+        final double[] distance;
+        final int[] stamp;
+        int generation = 0;
+        final NodeHeap queue = new NodeHeap();
+        
+        Contractor(CompactWifiGraph graph) {
+            int n = graph.getNodeCount();
+            targets = new int[n][];
+            weights = new float[n][];
+            middles = new int[n][];
+            size = new int[n];
+            contracted = new boolean[n];
+            contractedNeighbors = new int[n];
+            distance = new double[n];
+            stamp = new int[n];
+            
+            for (int v = 0; v < n; v++) {
+                int degree = graph.getEdgeEnd(v) - graph.getEdgeStart(v);
+                targets[v] = new int[Math.max(degree, 4)];
+                weights[v] = new float[Math.max(degree, 4)];
+                middles[v] = new int[Math.max(degree, 4)];
+                for (int e = graph.getEdgeStart(v); e < graph.getEdgeEnd(v); e++) {
+                    addOrImprove(v, graph.getTarget(e), graph.getWeight(e), -1);
+                }
+            }
+        }
+        
+        boolean isContracted(int v) {
+            return contracted[v];
+        }
+        
+        /**
+         * Приоритет сжатия: разница рёбер плюс количество уже сжатых соседей
+         */
+        double priority(int v) {
+            int shortcuts = countOrAddShortcuts(v, false);
+            return shortcuts - size[v] + contractedNeighbors[v];
+        }
+        
+        void contract(int v) {
+            countOrAddShortcuts(v, true);
+            for (int i = 0; i < size[v]; i++) {
+                int u = targets[v][i];
+                remove(u, v);
+                contractedNeighbors[u]++;
+            }
+            contracted[v] = true;
+            size[v] = 0;
+        }
+        
+        /**
+         * Найти пары соседей v, кратчайший путь между которыми проходит через v
+         * и добавить (или только посчитать) для них сокращения
+         */
+        private int countOrAddShortcuts(int v, boolean add) {
+            int count = 0;
+            int degree = size[v];
+            // Копии, т.к. при добавлении сокращений списки соседей могут измениться
+            int[] neighbors = Arrays.copyOf(targets[v], degree);
+            float[] neighborWeights = Arrays.copyOf(weights[v], degree);
+            
+            for (int i = 0; i < degree; i++) {
+                int u = neighbors[i];
+                double maxViaV = 0;
+                for (int j = i + 1; j < degree; j++) {
+                    maxViaV = Math.max(maxViaV, neighborWeights[i] + neighborWeights[j]);
+                }
+                if (maxViaV == 0) {
+                    continue;
+                }
+                
+                witnessSearch(u, v, maxViaV, add ? WITNESS_SETTLED_LIMIT : PRIORITY_SETTLED_LIMIT);
+                
+                for (int j = i + 1; j < degree; j++) {
+                    int w = neighbors[j];
+                    float viaV = neighborWeights[i] + neighborWeights[j];
+                    if (witnessDistance(w) > viaV) {
+                        count++;
+                        if (add) {
+                            addOrImprove(u, w, viaV, v);
+                            addOrImprove(w, u, viaV, v);
+                        }
+                    }
+                }
+            }
+            return count;
+        }
+        
+        /**
+         * Dijkstra от source без узла excluded, не дальше limit и с ограничением на число узлов
+         */
+        private void witnessSearch(int source, int excluded, double limit, int settledLimit) {
+            generation++;
+            queue.clear();
+            distance[source] = 0;
+            stamp[source] = generation;
+            queue.add(source, 0);
+            int settled = 0;
+            
+            while (!queue.isEmpty() && settled < settledLimit) {
+                double key = queue.peekKey();
+                int current = queue.poll();
+                if (key > distance[current]) {
+                    continue; // устаревшая запись
+                }
+                if (key > limit) {
+                    break;
+                }
+                settled++;
+                
+                for (int i = 0; i < size[current]; i++) {
+                    int next = targets[current][i];
+                    if (next == excluded) {
+                        continue;
+                    }
+                    double newDistance = key + weights[current][i];
+                    if (stamp[next] != generation || newDistance < distance[next]) {
+                        distance[next] = newDistance;
+                        stamp[next] = generation;
+                        queue.add(next, newDistance);
+                    }
+                }
+            }
+        }
+        
+        private double witnessDistance(int node) {
+            return stamp[node] == generation ? distance[node] : Double.MAX_VALUE;
+        }
+        
+        private void addOrImprove(int from, int to, float weight, int middle) {
+            for (int i = 0; i < size[from]; i++) {
+                if (targets[from][i] == to) {
+                    if (weight < weights[from][i]) {
+                        weights[from][i] = weight;
+                        middles[from][i] = middle;
+                    }
+                    return;
+                }
+            }
+            if (size[from] == targets[from].length) {
+                int capacity = Math.max(4, size[from] * 2);
+                targets[from] = Arrays.copyOf(targets[from], capacity);
+                weights[from] = Arrays.copyOf(weights[from], capacity);
+                middles[from] = Arrays.copyOf(middles[from], capacity);
+            }
+            targets[from][size[from]] = to;
+            weights[from][size[from]] = weight;
+            middles[from][size[from]] = middle;
+            size[from]++;
+        }
+        
+        private void remove(int from, int to) {
+            for (int i = 0; i < size[from]; i++) {
+                if (targets[from][i] == to) {
+                    int last = --size[from];
+                    targets[from][i] = targets[from][last];
+                    weights[from][i] = weights[from][last];
+                    middles[from][i] = middles[from][last];
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package ru.moscow.wifi.route;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.moscow.wifi.dto.RouteResponse;
+import ru.moscow.wifi.graph.GraphNode;
+import ru.moscow.wifi.graph.PathResult;
+import ru.moscow.wifi.graph.SearchAlgorithm;
+import ru.moscow.wifi.service.WifiGraphService;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Маршрут с максимальным покрытием: поиск пути по графу точек Wi-Fi
+ * с пониженным весом рёбер, ведущих в точки Wi-Fi.
+ * Если граф не связывает A и B (большие разрывы между точками), строится сбалансированный маршрут
+ */
+@Component
+public class CoverageRouteStrategy implements RouteStrategy {
+    
+    @Autowired
+    private WifiGraphService wifiGraphService;
+    
+    @Autowired
+    private BalancedRouteStrategy balancedRouteStrategy;
+    
+    @Value("${wifi.route.budget.coverage-ms:1000}")
+    private long latencyBudgetMs;
+    
+    @Value("${wifi.route.coverage.wifi-priority:0.5}")
+    private double wifiPriority;
+    
+    @Override
+    public String getName() {
+        return "coverage";
+    }
+    
+    @Override
+    public long getLatencyBudgetMs() {
+        return latencyBudgetMs;
+    }
+    
+    @Override
+    public RouteStrategyResult buildRoute(RouteContext context) {
+        // По умолчанию - запрос к иерархии сжатия (пока её нет, WifiGraphService использует A*)
+        SearchAlgorithm algorithm = context.getAlgorithm() != null ? context.getAlgorithm() : SearchAlgorithm.CH;
+        PathResult result = wifiGraphService.findPath(context.getFromLat(), context.getFromLng(),
+                context.getToLat(), context.getToLng(), wifiPriority, algorithm, context.getDeadline());
+        
+        if (!result.isFound()) {
+            // Поиск остановлен по сроку - маршрут построит запасная стратегия
+            return context.isExpired() ? null : balancedRouteStrategy.buildRoute(context);
+        }
+        
+        List<RouteResponse.Coordinate> route = new ArrayList<>();
+        for (GraphNode node : result.getPath()) {
+            route.add(new RouteResponse.Coordinate(node.getLat(), node.getLng()));
+        }
+        return new RouteStrategyResult(route, "wifi-graph-" + result.getAlgorithm().name().toLowerCase());
+    }
+}
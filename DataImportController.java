@@ -4,6 +4,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import ru.moscow.wifi.service.DataImportService;
+import ru.moscow.wifi.service.ImportJob;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -20,28 +21,38 @@ public class DataImportController {
     private DataImportService dataImportService;
     
     /**
-     * Импортировать все датасеты с портала data.mos.ru
+     * Запустить импорт всех датасетов с портала data.mos.ru в фоне
+     * Ответ приходит сразу, ход импорта - GET /api/admin/import/{job_id}
      * 
      * Параметры:
      * - api_key (опционально) - API ключ для доступа к порталу
+     * - mode (опционально) - incremental (по умолчанию): сверка с сохранёнными точками,
+     *   вставка новых, обновление изменённых и удаление пропавших строк; append - только добавление
      */
     @PostMapping("/import")
     public ResponseEntity<Map<String, Object>> importDatasets(
-            @RequestParam(required = false) String api_key) {
+            @RequestParam(required = false) String api_key,
+            @RequestParam(defaultValue = "incremental") String mode) {
         
         try {
             // Если API ключ не указан, можно попробовать без него
             // (некоторые датасеты доступны публично)
             String apiKey = api_key != null ? api_key : "";
             
-            int imported = dataImportService.importAllDatasets(apiKey);
+            if (!"incremental".equals(mode) && !"append".equals(mode)) {
+                Map<String, Object> error = new HashMap<>();
+                error.put("success", false);
+                error.put("error", "mode должен быть incremental или append");
+                return ResponseEntity.badRequest().body(error);
+            }
             
-            Map<String, Object> response = new HashMap<>();
+            ImportJob job = dataImportService.startImport(apiKey, "incremental".equals(mode));
+            
+            Map<String, Object> response = job.toMap();
             response.put("success", true);
-            response.put("message", "Импорт завершён");
-            response.put("imported", imported);
+            response.put("message", "Импорт запущен");
             
-            return ResponseEntity.ok(response);
+            return ResponseEntity.accepted().body(response);
             
         } catch (Exception e) {
             Map<String, Object> error = new HashMap<>();
@@ -52,6 +63,24 @@ public class DataImportController {
         }
     }
     
+    /**
+     * Ход импорта: статус задачи и по каждому датасету - импортировано точек, время, строк в секунду
+     */
+    @GetMapping("/import/{jobId}")
+    public ResponseEntity<Map<String, Object>> getImportJob(@PathVariable String jobId) {
+        ImportJob job = dataImportService.getJob(jobId);
+        if (job == null) {
+            Map<String, Object> error = new HashMap<>();
+            error.put("success", false);
+            error.put("error", "Задача импорта не найдена");
+            return ResponseEntity.status(404).body(error);
+        }
+        
+        Map<String, Object> response = job.toMap();
+        response.put("success", true);
+        return ResponseEntity.ok(response);
+    }
+    
     /**
      * Проверить количество точек в БД
      */
@@ -1,18 +1,52 @@
 package ru.moscow.wifi.service;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.http.ResponseEntity;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpMethod;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
+import ru.moscow.wifi.cache.WifiPointChangeSet;
 import ru.moscow.wifi.model.WifiPoint;
+import ru.moscow.wifi.repository.WifiPointBatchWriter;
 import ru.moscow.wifi.repository.WifiPointRepository;
+import ru.moscow.wifi.util.WifiPointMerger;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Сервис для загрузки и импорта данных с портала data.mos.ru
+ *
+ * Импорт выполняется фоновой задачей (ImportJob): датасеты загружаются параллельно
+ * в ограниченном пуле. Ответ портала читается потоково: строки разбираются по одной
+ * и пишутся в БД пакетами по wifi.import.batch-size точек, причём пакет пишется
+ * в отдельном потоке, пока разбирается следующий. Память не зависит от размера датасета
+ *
+ * Повторный импорт инкрементальный: строка узнаётся по ключу источника (global_id строки
+ * или хэш координат и названия), неизменённые строки не пишутся, изменённые обновляются,
+ * пропавшие из датасета удаляются. Снимок точек применяет только эти изменения
  */
 @Service
 public class DataImportService {
@@ -20,96 +54,240 @@ public class DataImportService {
     @Autowired
     private WifiPointRepository wifiPointRepository;
     
+    @Autowired
+    private WifiPointBatchWriter wifiPointBatchWriter;
+    
+    @Autowired
+    private WifiPointSnapshotService wifiPointSnapshotService;
+    
+    @Autowired
+    private ObjectMapper objectMapper;
+    
+    @Value("${wifi.import.batch-size:500}")
+    private int batchSize;
+    
+    // Адрес API портала, для проверки можно указать локальную заглушку
+    @Value("${wifi.import.base-url:https://apidata.mos.ru/v1}")
+    private String baseUrl;
+    
+    // Сколько датасетов загружается одновременно (каждый занимает соединение с БД во время записи)
+    @Value("${wifi.import.parallelism:3}")
+    private int parallelism;
+    
     private final RestTemplate restTemplate = new RestTemplate();
     
-    // URL датасетов с портала data.mos.ru
-    private static final String DATASET_LIBRARIES = "https://apidata.mos.ru/v1/datasets/60788/rows";
-    private static final String DATASET_CINEMAS = "https://apidata.mos.ru/v1/datasets/60789/rows";
-    private static final String DATASET_CULTURAL_CENTERS = "https://apidata.mos.ru/v1/datasets/60790/rows";
-    private static final String DATASET_PARKS = "https://apidata.mos.ru/v1/datasets/861/rows";
-    private static final String DATASET_CITY_WIFI = "https://apidata.mos.ru/v1/datasets/2756/rows";
+    private ThreadPoolExecutor downloadExecutor;
+    private ThreadPoolExecutor writeExecutor;
+    
+    private static final int MAX_JOBS = 20; // сколько последних задач хранится для запроса статуса
+    
+    // Последние задачи импорта по id и текущая задача (одновременно выполняется только одна)
+    private final Map<String, ImportJob> jobs = Collections.synchronizedMap(new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ImportJob> eldest) {
+            return size() > MAX_JOBS;
+        }
+    });
+    private ImportJob currentJob;
+    
+    // Номера датасетов с портала data.mos.ru по типу точек
+    private static final Map<String, Integer> DATASETS = new LinkedHashMap<>();
+    static {
+        DATASETS.put("library", 60788);
+        DATASETS.put("cinema", 60789);
+        DATASETS.put("cultural_center", 60790);
+        DATASETS.put("park", 861);
+        DATASETS.put("city_wifi", 2756);
+    }
+    
+    @PostConstruct
+    public void init() {
+        downloadExecutor = createExecutor("data-import");
+        // Отдельный пул для записи: загрузка ждёт запись своего предыдущего пакета
+        writeExecutor = createExecutor("data-import-write");
+    }
+    
+    private ThreadPoolExecutor createExecutor(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return new ThreadPoolExecutor(parallelism, parallelism, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(DATASETS.size() * 2), runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
     
     /**
-     * Загрузить все датасеты и импортировать в БД
+     * Запустить импорт всех датасетов в фоне
+     * Если импорт уже выполняется, возвращается текущая задача
+     *
+     * @param incremental сверять строки с сохранёнными точками; false - только добавлять точки
      */
-    public int importAllDatasets(String apiKey) {
-        int totalImported = 0;
+    public synchronized ImportJob startImport(String apiKey, boolean incremental) {
+        if (currentJob != null && currentJob.isRunning()) {
+            return currentJob;
+        }
         
-        try {
-            // Загружаем каждый датасет
-            totalImported += importDataset(DATASET_LIBRARIES, "library", apiKey);
-            totalImported += importDataset(DATASET_CINEMAS, "cinema", apiKey);
-            totalImported += importDataset(DATASET_CULTURAL_CENTERS, "cultural_center", apiKey);
-            totalImported += importDataset(DATASET_PARKS, "park", apiKey);
-            totalImported += importDataset(DATASET_CITY_WIFI, "city_wifi", apiKey);
-            
-        } catch (Exception e) {
-            System.err.println("Ошибка импорта данных: " + e.getMessage());
-            e.printStackTrace();
+        ImportJob job = new ImportJob(new ArrayList<>(DATASETS.keySet()));
+        List<CompletableFuture<Void>> tasks = new ArrayList<>();
+        for (Map.Entry<String, Integer> dataset : DATASETS.entrySet()) {
+            String type = dataset.getKey();
+            String url = baseUrl + "/datasets/" + dataset.getValue() + "/rows";
+            tasks.add(CompletableFuture.runAsync(
+                    () -> importDataset(url, type, apiKey, incremental, job), downloadExecutor));
         }
         
-        return totalImported;
+        CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[0])).whenComplete((ignored, e) -> {
+            try {
+                // Применяем изменения к снимку точек в памяти (вместе с ним перестраивается граф)
+                if (!job.getChanges().isEmpty()) {
+                    wifiPointSnapshotService.apply(job.getChanges());
+                }
+                job.setMerge(mergeReport(wifiPointSnapshotService.getLastMerge()));
+                job.finish(e == null && !job.isAllFailed() ? ImportJob.COMPLETED : ImportJob.FAILED);
+            } catch (Exception reloadError) {
+                System.err.println("Ошибка обновления снимка точек: " + reloadError.getMessage());
+                job.finish(ImportJob.FAILED);
+            }
+            System.out.println("Импорт " + job.getId() + " завершён: " + job.getImported() + " строк, изменения "
+                    + job.getChanges());
+        });
+        
+        jobs.put(job.getId(), job);
+        currentJob = job;
+        return job;
+    }
+    
+    /**
+     * Насколько объединение близких точек уменьшило снимок для маршрутов (и граф: узел графа - его точка)
+     */
+    private Map<String, Object> mergeReport(WifiPointMerger.Result merge) {
+        if (merge == null) {
+            return null;
+        }
+        Map<String, Object> report = new HashMap<>();
+        report.put("source_points", merge.getSourceCount());
+        report.put("points", merge.getPoints().size());
+        report.put("merged_groups", merge.getMergedGroups());
+        report.put("removed_points", merge.getRemoved());
+        return report;
+    }
+    
+    /**
+     * Задача импорта по id или null
+     */
+    public ImportJob getJob(String id) {
+        return jobs.get(id);
     }
     
     /**
      * Импортировать один датасет
      */
-    private int importDataset(String url, String type, String apiKey) {
+    private void importDataset(String url, String type, String apiKey, boolean incremental, ImportJob job) {
+        ImportJob.DatasetProgress progress = job.getDataset(type);
+        progress.start();
         try {
             System.out.println("Загрузка датасета: " + type);
             
+            // Сохранённые точки датасета для сверки (только ключи и хэши)
+            DatasetSync sync = new DatasetSync(wifiPointBatchWriter, writeExecutor, batchSize,
+                    incremental ? wifiPointBatchWriter.findBySourceDataset(type) : null, progress);
+            
             // Формируем URL с API ключом
             String fullUrl = url + "?api_key=" + apiKey + "&$top=10000";
             
-            // Загружаем данные
-            ResponseEntity<Map> response = restTemplate.getForEntity(fullUrl, Map.class);
+            // Загружаем и сохраняем данные по мере чтения ответа
+            try {
+                restTemplate.execute(fullUrl, HttpMethod.GET, null,
+                        response -> importRows(response.getBody(), type, sync));
+            } finally {
+                job.getChanges().addAll(sync.getChanges());
+            }
+            progress.finish(null);
             
-            if (response.getStatusCode().is2xxSuccessful() && response.getBody() != null) {
-                Map<String, Object> body = response.getBody();
-                List<Map<String, Object>> rows = (List<Map<String, Object>>) body.get("data");
-                
-                if (rows == null) {
-                    rows = (List<Map<String, Object>>) body.get("value");
+            System.out.println("Импортировано " + progress.getImported() + " строк типа " + type
+                    + " за " + progress.getElapsedMs() + " мс (" + progress.getRowsPerSecond() + " строк/с), изменения "
+                    + sync.getChanges());
+        } catch (Exception e) {
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            progress.finish(cause.getMessage());
+            System.err.println("Ошибка загрузки датасета " + type + ": " + cause.getMessage());
+        }
+    }
+    
+    /**
+     * Прочитать строки датасета из потока и сохранить их пакетами
+     * Строки лежат в массиве верхнего уровня или в поле "data"/"value" объекта.
+     * Удаления выполняются, только если массив прочитан целиком и в нём есть точки
+     */
+    private Void importRows(InputStream body, String type, DatasetSync sync) throws IOException {
+        try (JsonParser parser = objectMapper.getFactory().createParser(body)) {
+            if (!moveToRows(parser)) {
+                sync.finish(false);
+                return null;
+            }
+            
+            int points = 0;
+            JsonToken token;
+            while ((token = parser.nextToken()) != JsonToken.END_ARRAY && token != null) {
+                if (token != JsonToken.START_OBJECT) {
+                    parser.skipChildren();
+                    continue;
                 }
                 
-                if (rows != null) {
-                    int imported = parseAndSave(rows, type);
-                    System.out.println("Импортировано " + imported + " точек типа " + type);
-                    return imported;
+                // В памяти одновременно только одна строка и два пакета
+                Map<String, Object> row = parser.readValueAs(new TypeReference<Map<String, Object>>() {});
+                WifiPoint point = parseValidRow(row, type);
+                if (point != null) {
+                    sync.add(point);
+                    points++;
                 }
             }
-        } catch (Exception e) {
-            System.err.println("Ошибка загрузки датасета " + type + ": " + e.getMessage());
+            
+            sync.finish(token == JsonToken.END_ARRAY && points > 0);
+            return null;
+        } catch (IOException | RuntimeException e) {
+            sync.abort();
+            throw e;
         }
-        
-        return 0;
     }
     
     /**
-     * Парсить и сохранить точки Wi-Fi
+     * Перейти к началу массива строк, false - массив не найден
      */
-    private int parseAndSave(List<Map<String, Object>> rows, String type) {
-        int imported = 0;
-        List<WifiPoint> pointsToSave = new ArrayList<>();
+    private boolean moveToRows(JsonParser parser) throws IOException {
+        JsonToken token = parser.nextToken();
+        if (token == JsonToken.START_ARRAY) {
+            return true;
+        }
+        if (token != JsonToken.START_OBJECT) {
+            return false;
+        }
         
-        for (Map<String, Object> row : rows) {
-            try {
-                WifiPoint point = parseRow(row, type);
-                if (point != null && point.getLatitude() != null && point.getLongitude() != null) {
-                    pointsToSave.add(point);
-                }
-            } catch (Exception e) {
-                System.err.println("Ошибка парсинга строки: " + e.getMessage());
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if (value == JsonToken.START_ARRAY && ("data".equals(field) || "value".equals(field))) {
+                return true;
             }
+            parser.skipChildren();
         }
-        
-        // Сохраняем все точки
-        if (!pointsToSave.isEmpty()) {
-            wifiPointRepository.saveAll(pointsToSave);
-            imported = pointsToSave.size();
+        return false;
+    }
+    
+    /**
+     * Точка из строки данных или null, если строку не удалось разобрать или в ней нет координат
+     */
+    private WifiPoint parseValidRow(Map<String, Object> row, String type) {
+        try {
+            WifiPoint point = parseRow(row, type);
+            if (point != null && point.getLatitude() != null && point.getLongitude() != null) {
+                return point;
+            }
+        } catch (Exception e) {
+            System.err.println("Ошибка парсинга строки: " + e.getMessage());
         }
-        
-        return imported;
+        return null;
     }
     
     /**
@@ -162,9 +340,39 @@ public class DataImportService {
         // Источник данных
         point.setSourceDataset(type);
         
+        // Ключ строки для повторного импорта: global_id портала или хэш координат и названия
+        Object globalId = row.get("global_id");
+        if (globalId == null) {
+            globalId = extractString(cells, "global_id", "Id", "id");
+        }
+        if (globalId != null) {
+            point.setSourceId(globalId.toString());
+        } else if (lat != null && lng != null) {
+            point.setSourceId("h:" + sha1(String.format(Locale.ROOT, "%.6f|%.6f|%s", lat, lng, point.getName()))
+                    .substring(0, 20));
+        }
+        point.setContentHash(contentHash(point));
+        
         return point;
     }
     
+    /**
+     * Хэш полей точки, которые попадают в БД: по нему повторный импорт пропускает неизменённые строки
+     */
+    private String contentHash(WifiPoint point) {
+        return sha1(point.getName() + "|" + point.getType() + "|" + point.getLatitude() + "|" + point.getLongitude()
+                + "|" + point.getAddress() + "|" + point.getCoverageRadius());
+    }
+    
+    private String sha1(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            return HexFormat.of().formatHex(digest.digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
     /**
      * Извлечь строку из Map по разным возможным ключам
      */
@@ -199,13 +407,6 @@ public class DataImportService {
         return null;
     }
     
-    /**
-     * Импортировать данные из JSON файла (если загрузили вручную)
-     */
-    public int importFromJson(List<Map<String, Object>> data, String type) {
-        return parseAndSave(data, type);
-    }
-    
     /**
      * Получить общее количество точек в БД
      */
@@ -0,0 +1,144 @@
+package ru.moscow.wifi.service;
+
+import ru.moscow.wifi.cache.WifiPointChangeSet;
+import ru.moscow.wifi.model.WifiPoint;
+import ru.moscow.wifi.repository.WifiPointBatchWriter;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Запись одного датасета в БД пакетами
+ *
+ * В инкрементальном режиме точка сравнивается с сохранённой по ключу источника (sourceId):
+ * неизменённая (тот же contentHash) пропускается без записи, изменённая обновляется, новая вставляется.
+ * Сохранённые точки, которых не оказалось в датасете, удаляются в finish.
+ * Без сохранённых точек (режим append) все точки вставляются.
+ * Пакет пишется в writeExecutor, пока собирается следующий; одновременно пишется не больше одного пакета
+ */
+class DatasetSync {
+    private final WifiPointBatchWriter writer;
+    private final Executor writeExecutor;
+    private final int batchSize;
+    private final Map<String, WifiPointBatchWriter.StoredPoint> stored; // null - режим append
+    private final ImportJob.DatasetProgress progress;
+    
+    private final Set<String> seen = new HashSet<>();
+    private final WifiPointChangeSet changes = new WifiPointChangeSet();
+    private List<WifiPoint> inserts;
+    private List<WifiPoint> updates;
+    private CompletableFuture<Void> pendingWrite = CompletableFuture.completedFuture(null);
+    
+    DatasetSync(WifiPointBatchWriter writer, Executor writeExecutor, int batchSize,
+                Map<String, WifiPointBatchWriter.StoredPoint> stored, ImportJob.DatasetProgress progress) {
+        this.writer = writer;
+        this.writeExecutor = writeExecutor;
+        this.batchSize = batchSize;
+        this.stored = stored;
+        this.progress = progress;
+        this.inserts = new ArrayList<>(batchSize);
+        this.updates = new ArrayList<>();
+    }
+    
+    void add(WifiPoint point) {
+        if (stored != null) {
+            // Повтор той же строки в датасете
+            if (!seen.add(point.getSourceId())) {
+                return;
+            }
+            
+            WifiPointBatchWriter.StoredPoint existing = stored.get(point.getSourceId());
+            if (existing != null) {
+                progress.addImported(1);
+                if (point.getContentHash().equals(existing.getContentHash())) {
+                    progress.addUnchanged(1);
+                    return;
+                }
+                point.setId(existing.getId());
+                updates.add(point);
+                if (updates.size() >= batchSize) {
+                    List<WifiPoint> batch = updates;
+                    updates = new ArrayList<>();
+                    write(() -> {
+                        writer.update(batch);
+                        changes.addUpdated(batch);
+                        progress.addUpdated(batch.size());
+                    });
+                }
+                return;
+            }
+        }
+        
+        progress.addImported(1);
+        inserts.add(point);
+        if (inserts.size() >= batchSize) {
+            List<WifiPoint> batch = inserts;
+            inserts = new ArrayList<>(batchSize);
+            write(() -> {
+                writer.insert(batch);
+                changes.addInserted(batch);
+                progress.addInserted(batch.size());
+            });
+        }
+    }
+    
+    /**
+     * Дописать оставшиеся пакеты и удалить точки, которых нет в датасете
+     *
+     * @param complete датасет прочитан целиком и не пуст; иначе удаления не выполняются,
+     *                 чтобы оборванная или пустая выгрузка не стёрла сохранённые точки
+     */
+    void finish(boolean complete) {
+        pendingWrite.join();
+        
+        writer.insert(inserts);
+        changes.addInserted(inserts);
+        progress.addInserted(inserts.size());
+        writer.update(updates);
+        changes.addUpdated(updates);
+        progress.addUpdated(updates.size());
+        
+        if (stored != null && complete) {
+            List<Integer> removed = new ArrayList<>();
+            for (Map.Entry<String, WifiPointBatchWriter.StoredPoint> entry : stored.entrySet()) {
+                if (!seen.contains(entry.getKey())) {
+                    removed.add(entry.getValue().getId());
+                }
+            }
+            for (int from = 0; from < removed.size(); from += batchSize) {
+                List<Integer> batch = removed.subList(from, Math.min(from + batchSize, removed.size()));
+                writer.delete(batch);
+                progress.addDeleted(batch.size());
+            }
+            changes.addDeleted(removed);
+        }
+    }
+    
+    /**
+     * Дождаться уже начатой записи после ошибки, чтобы записанный пакет попал в изменения
+     */
+    void abort() {
+        try {
+            pendingWrite.join();
+        } catch (Exception e) {
+            // Ошибка записи уже отражена в статусе датасета
+        }
+    }
+    
+    /**
+     * Изменения, уже записанные в БД
+     */
+    WifiPointChangeSet getChanges() {
+        return changes;
+    }
+    
+    private void write(Runnable task) {
+        pendingWrite.join();
+        pendingWrite = CompletableFuture.runAsync(task, writeExecutor);
+    }
+}
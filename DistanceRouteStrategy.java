@@ -0,0 +1,38 @@
+package ru.moscow.wifi.route;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.moscow.wifi.dto.RouteResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Кратчайший маршрут: базовый маршрут от маршрутизатора без отклонений к точкам Wi-Fi
+ * Самая дешёвая стратегия, она же запасная для остальных
+ */
+@Component
+public class DistanceRouteStrategy implements RouteStrategy {
+    
+    @Value("${wifi.route.budget.distance-ms:100}")
+    private long latencyBudgetMs;
+    
+    @Override
+    public String getName() {
+        return "distance";
+    }
+    
+    @Override
+    public long getLatencyBudgetMs() {
+        return latencyBudgetMs;
+    }
+    
+    @Override
+    public RouteStrategyResult buildRoute(RouteContext context) {
+        List<RouteResponse.Coordinate> route = new ArrayList<>();
+        for (double[] point : context.getBaseRoute()) {
+            route.add(new RouteResponse.Coordinate(point[0], point[1]));
+        }
+        return new RouteStrategyResult(route, "router");
+    }
+}
@@ -11,11 +11,6 @@ public class GraphNode {
     private final double lat;
     private final double lng;
     
-    // Для алгоритма Dijkstra
-    private double distanceFromStart = Double.MAX_VALUE;
-    private GraphNode previousNode = null;
-    private boolean visited = false;
-    
     public GraphNode(int id, WifiPoint wifiPoint) {
         this.id = id;
         this.wifiPoint = wifiPoint;
@@ -46,36 +41,6 @@ public class GraphNode {
         return lng;
     }
     
-    public double getDistanceFromStart() {
-        return distanceFromStart;
-    }
-    
-    public void setDistanceFromStart(double distanceFromStart) {
-        this.distanceFromStart = distanceFromStart;
-    }
-    
-    public GraphNode getPreviousNode() {
-        return previousNode;
-    }
-    
-    public void setPreviousNode(GraphNode previousNode) {
-        this.previousNode = previousNode;
-    }
-    
-    public boolean isVisited() {
-        return visited;
-    }
-    
-    public void setVisited(boolean visited) {
-        this.visited = visited;
-    }
-    
-    public void reset() {
-        this.distanceFromStart = Double.MAX_VALUE;
-        this.previousNode = null;
-        this.visited = false;
-    }
-    
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -1,161 +1,284 @@
 package ru.moscow.wifi.graph;
 
+import ru.moscow.wifi.util.GeometryUtil;
+
 import java.util.*;
 
 /**
- * Алгоритм Dijkstra для поиска кратчайшего пути в графе
+ * Алгоритмы Dijkstra, A* и двунаправленный Dijkstra для поиска кратчайшего пути в графе
+ *
+ * Состояние поиска хранится в SearchState, а не в узлах графа,
+ * поэтому один экземпляр графа можно использовать из нескольких потоков одновременно
  */
 public class GraphPathFinder {
     
     /**
      * Найти кратчайший путь от начального узла до конечного
      * Использует алгоритм Dijkstra
-     * 
+     *
      * @param graph граф для поиска пути
      * @return список узлов, представляющих путь от A до B, или null если путь не найден
      */
     public List<GraphNode> findShortestPath(WifiGraph graph) {
+        return findPath(graph, 1.0, SearchAlgorithm.DIJKSTRA).getPath();
+    }
+    
+    /**
+     * Найти путь с максимальным покрытием Wi-Fi
+     * Использует модифицированный алгоритм Dijkstra с приоритетом на точки Wi-Fi
+     *
+     * @param graph граф для поиска пути
+     * @param wifiPriority приоритет точек Wi-Fi (1.0 = без приоритета, < 1.0 = приоритет выше)
+     * @return список узлов, представляющих путь от A до B
+     */
+    public List<GraphNode> findPathWithMaxWifiCoverage(WifiGraph graph, double wifiPriority) {
+        return findPath(graph, wifiPriority, SearchAlgorithm.DIJKSTRA).getPath();
+    }
+    
+    /**
+     * Найти путь от A до B выбранным алгоритмом
+     * 
+     * @param graph граф для поиска пути
+     * @param wifiPriority приоритет точек Wi-Fi (1.0 = без приоритета, < 1.0 = приоритет выше)
+     * @param algorithm алгоритм поиска
+     * @return путь и количество обработанных узлов (путь null, если не найден)
+     */
+    public PathResult findPath(WifiGraph graph, double wifiPriority, SearchAlgorithm algorithm) {
+        if (algorithm == SearchAlgorithm.CH) {
+            throw new IllegalArgumentException("Поиск по иерархии сжатия выполняет HierarchyPathFinder");
+        }
+        if (algorithm == SearchAlgorithm.BIDIRECTIONAL) {
+            return searchBidirectional(graph, wifiPriority);
+        }
+        
+        double heuristicFactor = 0;
+        if (algorithm == SearchAlgorithm.ASTAR) {
+            // Вес любого ребра не меньше расстояния по прямой, умноженного на минимальный множитель,
+            // поэтому такая оценка оставшегося пути не превышает настоящую (эвристика допустима)
+            heuristicFactor = WifiGraph.COVERED_EDGE_FACTOR * Math.max(0, Math.min(1.0, wifiPriority));
+        }
+        return search(graph, wifiPriority, heuristicFactor, algorithm);
+    }
+    
+    /**
+     * Dijkstra (heuristicFactor = 0) или A* от точки A до точки B
+     * Вес ребра, ведущего в точку Wi-Fi, умножается на wifiPriority
+     */
+    private PathResult search(WifiGraph graph, double wifiPriority, double heuristicFactor,
+                              SearchAlgorithm algorithm) {
         GraphNode start = graph.getStartNode();
         GraphNode end = graph.getEndNode();
         
         if (start == null || end == null) {
-            return null;
+            return new PathResult(null, algorithm, 0);
         }
         
-        // Сбрасываем состояние всех узлов
-        graph.resetNodes();
-        
-        // Инициализация
-        start.setDistanceFromStart(0.0);
-        
-        // Приоритетная очередь для узлов (сортировка по расстоянию)
-        PriorityQueue<GraphNode> queue = new PriorityQueue<>(
-                Comparator.comparingDouble(GraphNode::getDistanceFromStart)
-        );
-        queue.add(start);
+        int startOrdinal = graph.getOrdinal(start);
+        int endOrdinal = graph.getOrdinal(end);
+        int expanded = 0;
         
-        while (!queue.isEmpty()) {
-            GraphNode current = queue.poll();
+        // Состояние поиска берём из пула вместо сброса всех узлов графа
+        SearchState state = SearchState.acquire(graph.getOrdinalCount());
+        try {
+            // Инициализация
+            state.update(startOrdinal, 0.0, -1);
             
-            // Если достигли конечной точки, строим путь
-            if (current.equals(end)) {
-                return buildPath(end);
-            }
-            
-            // Если узел уже посещён, пропускаем
-            if (current.isVisited()) {
-                continue;
-            }
+            // Приоритетная очередь для узлов (сортировка по расстоянию + оценке оставшегося пути)
+            NodeHeap queue = state.getQueue();
+            queue.add(startOrdinal, heuristic(start, end, heuristicFactor));
             
-            current.setVisited(true);
-            
-            // Обрабатываем всех соседей
-            List<GraphEdge> edges = graph.getEdges(current.getId());
-            for (GraphEdge edge : edges) {
-                GraphNode neighbor = edge.getTo();
+            while (!queue.isEmpty()) {
+                int current = queue.poll();
+                
+                // Если достигли конечной точки, строим путь
+                if (current == endOrdinal) {
+                    return new PathResult(buildPath(graph, state, endOrdinal), algorithm, expanded);
+                }
                 
-                if (neighbor.isVisited()) {
+                // Если узел уже посещён, пропускаем
+                if (state.isSettled(current)) {
                     continue;
                 }
                 
-                // Вычисляем новое расстояние
-                double newDistance = current.getDistanceFromStart() + edge.getWeight();
+                state.settle(current);
+                expanded++;
+                double currentDistance = state.getDistance(current);
                 
-                // Если нашли более короткий путь, обновляем
-                if (newDistance < neighbor.getDistanceFromStart()) {
-                    neighbor.setDistanceFromStart(newDistance);
-                    neighbor.setPreviousNode(current);
-                    queue.add(neighbor);
+                // Обрабатываем всех соседей
+                List<GraphEdge> edges = graph.getEdges(graph.getNodeByOrdinal(current).getId());
+                for (GraphEdge edge : edges) {
+                    GraphNode neighbor = edge.getTo();
+                    int neighborOrdinal = graph.getOrdinal(neighbor);
+                    
+                    if (state.isSettled(neighborOrdinal)) {
+                        continue;
+                    }
+                    
+                    // Если сосед - точка Wi-Fi, уменьшаем вес (приоритет выше)
+                    double edgeWeight = edge.getWeight();
+                    if (neighbor.getWifiPoint() != null) {
+                        edgeWeight *= wifiPriority;
+                    }
+                    
+                    // Вычисляем новое расстояние
+                    double newDistance = currentDistance + edgeWeight;
+                    
+                    // Если нашли более короткий путь, обновляем
+                    if (newDistance < state.getDistance(neighborOrdinal)) {
+                        state.update(neighborOrdinal, newDistance, current);
+                        queue.add(neighborOrdinal, newDistance + heuristic(neighbor, end, heuristicFactor));
+                    }
                 }
             }
+            
+            // Путь не найден
+            return new PathResult(null, algorithm, expanded);
+        } finally {
+            state.release();
         }
-        
-        // Путь не найден
-        return null;
-    }
-    
-    /**
-     * Построить путь от конечного узла до начального
-     * (идём по ссылкам previousNode)
-     */
-    private List<GraphNode> buildPath(GraphNode endNode) {
-        List<GraphNode> path = new ArrayList<>();
-        GraphNode current = endNode;
-        
-        while (current != null) {
-            path.add(current);
-            current = current.getPreviousNode();
-        }
-        
-        // Разворачиваем путь (от начала к концу)
-        Collections.reverse(path);
-        
-        return path;
     }
     
     /**
-     * Найти путь с максимальным покрытием Wi-Fi
-     * Использует модифицированный алгоритм Dijkstra с приоритетом на точки Wi-Fi
-     * 
-     * @param graph граф для поиска пути
-     * @param wifiPriority приоритет точек Wi-Fi (1.0 = без приоритета, < 1.0 = приоритет выше)
-     * @return список узлов, представляющих путь от A до B
+     * Двунаправленный Dijkstra: прямой поиск от A и обратный от B по тем же рёбрам
+     * (рёбра графа симметричны, множитель wifiPriority относится к узлу, в который ведёт ребро)
      */
-    public List<GraphNode> findPathWithMaxWifiCoverage(WifiGraph graph, double wifiPriority) {
+    private PathResult searchBidirectional(WifiGraph graph, double wifiPriority) {
         GraphNode start = graph.getStartNode();
         GraphNode end = graph.getEndNode();
         
         if (start == null || end == null) {
-            return null;
+            return new PathResult(null, SearchAlgorithm.BIDIRECTIONAL, 0);
         }
         
-        graph.resetNodes();
-        start.setDistanceFromStart(0.0);
-        
-        PriorityQueue<GraphNode> queue = new PriorityQueue<>(
-                Comparator.comparingDouble(GraphNode::getDistanceFromStart)
-        );
-        queue.add(start);
+        int startOrdinal = graph.getOrdinal(start);
+        int endOrdinal = graph.getOrdinal(end);
+        int expanded = 0;
         
-        while (!queue.isEmpty()) {
-            GraphNode current = queue.poll();
+        SearchState forward = SearchState.acquire(graph.getOrdinalCount());
+        SearchState backward = SearchState.acquire(graph.getOrdinalCount());
+        try {
+            forward.update(startOrdinal, 0.0, -1);
+            forward.getQueue().add(startOrdinal, 0.0);
+            backward.update(endOrdinal, 0.0, -1);
+            backward.getQueue().add(endOrdinal, 0.0);
             
-            if (current.equals(end)) {
-                return buildPath(end);
-            }
-            
-            if (current.isVisited()) {
-                continue;
-            }
+            // Длина лучшего найденного пути через узел встречи
+            double best = startOrdinal == endOrdinal ? 0.0 : Double.MAX_VALUE;
+            int meeting = startOrdinal == endOrdinal ? startOrdinal : -1;
             
-            current.setVisited(true);
-            
-            List<GraphEdge> edges = graph.getEdges(current.getId());
-            for (GraphEdge edge : edges) {
-                GraphNode neighbor = edge.getTo();
+            while (true) {
+                skipSettled(forward);
+                skipSettled(backward);
                 
-                if (neighbor.isVisited()) {
-                    continue;
+                NodeHeap forwardQueue = forward.getQueue();
+                NodeHeap backwardQueue = backward.getQueue();
+                if (forwardQueue.isEmpty() || backwardQueue.isEmpty()) {
+                    break;
                 }
                 
-                // Модифицируем вес с учётом приоритета Wi-Fi
-                double edgeWeight = edge.getWeight();
-                
-                // Если сосед - точка Wi-Fi, уменьшаем вес (приоритет выше)
-                if (neighbor.getWifiPoint() != null) {
-                    edgeWeight *= wifiPriority;
+                // Стандартный критерий остановки: короче уже найденного пути ничего не будет
+                if (forwardQueue.peekKey() + backwardQueue.peekKey() >= best) {
+                    break;
                 }
                 
-                double newDistance = current.getDistanceFromStart() + edgeWeight;
+                // Расширяем ту сторону, у которой меньше минимальное расстояние
+                boolean isForward = forwardQueue.peekKey() <= backwardQueue.peekKey();
+                SearchState state = isForward ? forward : backward;
+                SearchState other = isForward ? backward : forward;
                 
-                if (newDistance < neighbor.getDistanceFromStart()) {
-                    neighbor.setDistanceFromStart(newDistance);
-                    neighbor.setPreviousNode(current);
-                    queue.add(neighbor);
+                int current = state.getQueue().poll();
+                state.settle(current);
+                expanded++;
+                double currentDistance = state.getDistance(current);
+                GraphNode currentNode = graph.getNodeByOrdinal(current);
+                
+                for (GraphEdge edge : graph.getEdges(currentNode.getId())) {
+                    GraphNode neighbor = edge.getTo();
+                    int neighborOrdinal = graph.getOrdinal(neighbor);
+                    
+                    if (state.isSettled(neighborOrdinal)) {
+                        continue;
+                    }
+                    
+                    // В прямом поиске ребро ведёт в соседа, в обратном - из соседа в текущий узел
+                    GraphNode target = isForward ? neighbor : currentNode;
+                    double edgeWeight = edge.getWeight();
+                    if (target.getWifiPoint() != null) {
+                        edgeWeight *= wifiPriority;
+                    }
+                    
+                    double newDistance = currentDistance + edgeWeight;
+                    if (newDistance < state.getDistance(neighborOrdinal)) {
+                        state.update(neighborOrdinal, newDistance, current);
+                        state.getQueue().add(neighborOrdinal, newDistance);
+                    }
+                    
+                    // Проверяем, не встретились ли поиски в соседнем узле
+                    double otherDistance = other.getDistance(neighborOrdinal);
+                    if (otherDistance != Double.MAX_VALUE
+                            && state.getDistance(neighborOrdinal) + otherDistance < best) {
+                        best = state.getDistance(neighborOrdinal) + otherDistance;
+                        meeting = neighborOrdinal;
+                    }
                 }
             }
+            
+            if (meeting == -1) {
+                return new PathResult(null, SearchAlgorithm.BIDIRECTIONAL, expanded);
+            }
+            
+            // Путь от A до узла встречи + путь от узла встречи до B
+            List<GraphNode> path = buildPath(graph, forward, meeting);
+            int current = backward.getPrevious(meeting);
+            while (current != -1) {
+                path.add(graph.getNodeByOrdinal(current));
+                current = backward.getPrevious(current);
+            }
+            
+            return new PathResult(path, SearchAlgorithm.BIDIRECTIONAL, expanded);
+        } finally {
+            forward.release();
+            backward.release();
+        }
+    }
+    
+    /**
+     * Убрать из вершины очереди устаревшие записи уже обработанных узлов
+     */
+    private void skipSettled(SearchState state) {
+        NodeHeap queue = state.getQueue();
+        while (!queue.isEmpty() && state.isSettled(queue.peekNode())) {
+            queue.poll();
         }
+    }
+    
+    /**
+     * Оценка оставшегося пути от узла до точки B
+     */
+    private double heuristic(GraphNode node, GraphNode end, double factor) {
+        if (factor == 0) {
+            return 0;
+        }
+        return factor * GeometryUtil.calculateDistance(
+                node.getLat(), node.getLng(), end.getLat(), end.getLng());
+    }
+    
+    /**
+     * Построить путь от конечного узла до начального
+     * (идём по ссылкам на предыдущие узлы)
+     */
+    private List<GraphNode> buildPath(WifiGraph graph, SearchState state, int endOrdinal) {
+        List<GraphNode> path = new ArrayList<>();
+        int current = endOrdinal;
         
-        return null;
+        while (current != -1) {
+            path.add(graph.getNodeByOrdinal(current));
+            current = state.getPrevious(current);
+        }
+        
+        // Разворачиваем путь (от начала к концу)
+        Collections.reverse(path);
+        
+        return path;
     }
 }
@@ -0,0 +1,181 @@
+package ru.moscow.wifi.graph;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Поиск пути по иерархии сжатия (ContractionHierarchy)
+ *
+ * Прямой поиск от A и обратный от B идут только по рёбрам к узлам с большим рангом,
+ * поэтому обрабатывается лишь небольшая часть графа независимо от размера города.
+ * Найденный путь раскрывается: каждое сокращение заменяется исходными рёбрами
+ */
+public class HierarchyPathFinder {
+    
+    /**
+     * Найти путь от A до B
+     *
+     * @param hierarchy иерархия, построенная для графа запроса
+     * @param query граф с добавленными точками A и B
+     * @param wifiPriority приоритет точек Wi-Fi (1.0 = без приоритета, < 1.0 = приоритет выше)
+     * @return путь и количество обработанных узлов (путь null, если не найден)
+     */
+    public PathResult findPath(ContractionHierarchy hierarchy, CompactWifiGraph.Query query,
+                               double wifiPriority) {
+        return findPath(hierarchy, query, wifiPriority, Long.MAX_VALUE);
+    }
+    
+    /**
+     * Найти путь от A до B, прекратив поиск после deadline
+     *
+     * @param deadline время System.currentTimeMillis(), после которого (или после прерывания потока)
+     *                 поиск останавливается и возвращает путь null
+     */
+    public PathResult findPath(ContractionHierarchy hierarchy, CompactWifiGraph.Query query,
+                               double wifiPriority, long deadline) {
+        int start = query.getStartNode();
+        int end = query.getEndNode();
+        int expanded = 0;
+        
+        SearchState forward = SearchState.acquire(query.getOrdinalCount());
+        SearchState backward = SearchState.acquire(query.getOrdinalCount());
+        try {
+            // Все узлы иерархии - точки Wi-Fi, поэтому множитель приоритета применяется к любому ребру,
+            // ведущему в узел графа; ребро в точку B (не точку Wi-Fi) не изменяется
+            forward.update(start, 0.0, -1);
+            int[] startTargets = query.getStartTargets();
+            float[] startWeights = query.getStartWeights();
+            for (int i = 0; i < startTargets.length; i++) {
+                double distance = startWeights[i] * wifiPriority;
+                forward.update(startTargets[i], distance, start);
+                forward.getQueue().add(startTargets[i], distance);
+            }
+            
+            backward.update(end, 0.0, -1);
+            int[] endTargets = query.getEndTargets();
+            float[] endWeights = query.getEndWeights();
+            for (int i = 0; i < endTargets.length; i++) {
+                backward.update(endTargets[i], endWeights[i], end);
+                backward.getQueue().add(endTargets[i], endWeights[i]);
+            }
+            
+            // Прямое ребро A-B (если точки рядом) - первый кандидат
+            double best = Float.isNaN(query.getDirectWeight()) ? Double.MAX_VALUE : query.getDirectWeight();
+            int meeting = -1;
+            
+            while (true) {
+                NodeHeap forwardQueue = forward.getQueue();
+                NodeHeap backwardQueue = backward.getQueue();
+                
+                // Сторона больше не может улучшить результат, если её минимум не меньше лучшего пути
+                boolean forwardActive = !forwardQueue.isEmpty() && forwardQueue.peekKey() < best;
+                boolean backwardActive = !backwardQueue.isEmpty() && backwardQueue.peekKey() < best;
+                if (!forwardActive && !backwardActive) {
+                    break;
+                }
+                
+                boolean isForward = forwardActive
+                        && (!backwardActive || forwardQueue.peekKey() <= backwardQueue.peekKey());
+                SearchState state = isForward ? forward : backward;
+                SearchState other = isForward ? backward : forward;
+                
+                int current = state.getQueue().poll();
+                if (state.isSettled(current)) {
+                    continue;
+                }
+                state.settle(current);
+                expanded++;
+                if (CompactPathFinder.isExpired(expanded, deadline)) {
+                    return new PathResult(null, SearchAlgorithm.CH, expanded);
+                }
+                
+                double currentDistance = state.getDistance(current);
+                double otherDistance = other.getDistance(current);
+                if (otherDistance != Double.MAX_VALUE && currentDistance + otherDistance < best) {
+                    best = currentDistance + otherDistance;
+                    meeting = current;
+                }
+                
+                for (int e = hierarchy.getEdgeStart(current); e < hierarchy.getEdgeEnd(current); e++) {
+                    int next = hierarchy.getTarget(e);
+                    double newDistance = currentDistance + hierarchy.getWeight(e) * wifiPriority;
+                    if (newDistance < state.getDistance(next)) {
+                        state.update(next, newDistance, current);
+                        state.getQueue().add(next, newDistance);
+                    }
+                }
+            }
+            
+            if (meeting == -1) {
+                if (best != Double.MAX_VALUE) {
+                    // Короче всего прямое ребро A-B
+                    List<GraphNode> direct = new ArrayList<>();
+                    direct.add(query.toGraphNode(start));
+                    direct.add(query.toGraphNode(end));
+                    return new PathResult(direct, SearchAlgorithm.CH, expanded);
+                }
+                return new PathResult(null, SearchAlgorithm.CH, expanded);
+            }
+            
+            return new PathResult(buildPath(hierarchy, query, forward, backward, meeting),
+                    SearchAlgorithm.CH, expanded);
+        } finally {
+            forward.release();
+            backward.release();
+        }
+    }
+    
+    /**
+     * Собрать путь A → узел встречи → B и раскрыть сокращения
+     */
+    private List<GraphNode> buildPath(ContractionHierarchy hierarchy, CompactWifiGraph.Query query,
+                                      SearchState forward, SearchState backward, int meeting) {
+        List<Integer> upward = new ArrayList<>();
+        for (int current = meeting; current != -1; current = forward.getPrevious(current)) {
+            upward.add(current);
+        }
+        Collections.reverse(upward);
+        for (int current = backward.getPrevious(meeting); current != -1; current = backward.getPrevious(current)) {
+            upward.add(current);
+        }
+        
+        int start = query.getStartNode();
+        int end = query.getEndNode();
+        List<GraphNode> path = new ArrayList<>();
+        path.add(query.toGraphNode(upward.get(0)));
+        for (int i = 1; i < upward.size(); i++) {
+            int from = upward.get(i - 1);
+            int to = upward.get(i);
+            if (from == start || to == end) {
+                // Рёбра к точкам A и B не являются сокращениями
+                path.add(query.toGraphNode(to));
+            } else {
+                unpack(hierarchy, query, from, to, path);
+            }
+        }
+        return path;
+    }
+    
+    /**
+     * Раскрыть ребро иерархии from → to и добавить в путь узлы после from
+     */
+    private void unpack(ContractionHierarchy hierarchy, CompactWifiGraph.Query query,
+                        int from, int to, List<GraphNode> path) {
+        Deque<int[]> stack = new ArrayDeque<>();
+        stack.push(new int[]{from, to});
+        while (!stack.isEmpty()) {
+            int[] edge = stack.pop();
+            int middle = hierarchy.getMiddle(hierarchy.findEdge(edge[0], edge[1]));
+            if (middle == -1) {
+                path.add(query.toGraphNode(edge[1]));
+            } else {
+                // Сначала раскрываем первую половину, поэтому она кладётся в стек последней
+                stack.push(new int[]{middle, edge[1]});
+                stack.push(new int[]{edge[0], middle});
+            }
+        }
+    }
+}
@@ -3,6 +3,7 @@ package ru.moscow.wifi.controller;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import ru.moscow.wifi.service.WifiPointSnapshotService;
 import ru.moscow.wifi.util.JsonDataImporter;
 
 import java.util.HashMap;
@@ -19,6 +20,9 @@ public class ImportController {
     @Autowired
     private JsonDataImporter jsonDataImporter;
     
+    @Autowired
+    private WifiPointSnapshotService wifiPointSnapshotService;
+    
     /**
      * Импортировать все JSON файлы из папки data/raw/
      * Можно вызвать через GET для удобства (из браузера)
@@ -29,6 +33,7 @@ public class ImportController {
         try {
             System.out.println("=== НАЧАЛО ИМПОРТА ===");
             jsonDataImporter.importAllFiles();
+            wifiPointSnapshotService.reload();
             
             // Получаем количество записей в БД
             long totalPoints = jsonDataImporter.getTotalPointsCount();
@@ -63,6 +68,9 @@ public class ImportController {
         try {
             String fileName = getFileNameByType(type);
             int imported = jsonDataImporter.importFile("data/raw/" + fileName, type);
+            if (imported > 0) {
+                wifiPointSnapshotService.reload();
+            }
             
             Map<String, Object> response = new HashMap<>();
             response.put("success", true);
@@ -0,0 +1,192 @@
+package ru.moscow.wifi.service;
+
+import ru.moscow.wifi.cache.WifiPointChangeSet;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Фоновый импорт датасетов: общий статус и ход импорта по каждому датасету
+ * Поля меняют потоки импорта, а читает контроллер, поэтому они volatile/atomic
+ */
+public class ImportJob {
+    public static final String PENDING = "pending";
+    public static final String RUNNING = "running";
+    public static final String COMPLETED = "completed";
+    public static final String FAILED = "failed";
+    
+    private final String id = UUID.randomUUID().toString();
+    private final long startedAt = System.currentTimeMillis();
+    private final Map<String, DatasetProgress> datasets = new LinkedHashMap<>();
+    private final WifiPointChangeSet changes = new WifiPointChangeSet();
+    private volatile String status = RUNNING;
+    private volatile long finishedAt;
+    private volatile Map<String, Object> merge;
+    
+    public ImportJob(List<String> types) {
+        for (String type : types) {
+            datasets.put(type, new DatasetProgress());
+        }
+    }
+    
+    public String getId() {
+        return id;
+    }
+    
+    public String getStatus() {
+        return status;
+    }
+    
+    public boolean isRunning() {
+        return RUNNING.equals(status);
+    }
+    
+    public DatasetProgress getDataset(String type) {
+        return datasets.get(type);
+    }
+    
+    /**
+     * Изменения точек, записанные всеми датасетами
+     */
+    public WifiPointChangeSet getChanges() {
+        return changes;
+    }
+    
+    /**
+     * Сколько строк датасетов обработано по всем датасетам
+     */
+    public int getImported() {
+        int total = 0;
+        for (DatasetProgress progress : datasets.values()) {
+            total += progress.imported.get();
+        }
+        return total;
+    }
+    
+    /**
+     * Все датасеты завершились с ошибкой
+     */
+    public boolean isAllFailed() {
+        for (DatasetProgress progress : datasets.values()) {
+            if (!FAILED.equals(progress.status)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Итог объединения близких точек в обновлённом снимке
+     */
+    public void setMerge(Map<String, Object> merge) {
+        this.merge = merge;
+    }
+    
+    public void finish(String status) {
+        this.finishedAt = System.currentTimeMillis();
+        this.status = status;
+    }
+    
+    /**
+     * Состояние задачи для ответа API
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("job_id", id);
+        result.put("status", status);
+        result.put("imported", getImported());
+        result.put("elapsed_ms", (finishedAt > 0 ? finishedAt : System.currentTimeMillis()) - startedAt);
+        
+        Map<String, Object> progress = new LinkedHashMap<>();
+        for (Map.Entry<String, DatasetProgress> entry : datasets.entrySet()) {
+            progress.put(entry.getKey(), entry.getValue().toMap());
+        }
+        result.put("datasets", progress);
+        if (merge != null) {
+            result.put("merge", merge);
+        }
+        return result;
+    }
+    
+    /**
+     * Ход импорта одного датасета
+     */
+    public static class DatasetProgress {
+        private final AtomicInteger imported = new AtomicInteger();
+        private final AtomicInteger inserted = new AtomicInteger();
+        private final AtomicInteger updated = new AtomicInteger();
+        private final AtomicInteger deleted = new AtomicInteger();
+        private final AtomicInteger unchanged = new AtomicInteger();
+        private volatile String status = PENDING;
+        private volatile long startedAt;
+        private volatile long finishedAt;
+        private volatile String error;
+        
+        public void start() {
+            startedAt = System.currentTimeMillis();
+            status = RUNNING;
+        }
+        
+        public void addImported(int rows) {
+            imported.addAndGet(rows);
+        }
+        
+        public int getImported() {
+            return imported.get();
+        }
+        
+        public void addInserted(int rows) {
+            inserted.addAndGet(rows);
+        }
+        
+        public void addUpdated(int rows) {
+            updated.addAndGet(rows);
+        }
+        
+        public void addDeleted(int rows) {
+            deleted.addAndGet(rows);
+        }
+        
+        public void addUnchanged(int rows) {
+            unchanged.addAndGet(rows);
+        }
+        
+        public long getElapsedMs() {
+            if (startedAt == 0) {
+                return 0;
+            }
+            return Math.max(1, (finishedAt > 0 ? finishedAt : System.currentTimeMillis()) - startedAt);
+        }
+        
+        public long getRowsPerSecond() {
+            long elapsed = getElapsedMs();
+            return elapsed > 0 ? imported.get() * 1000L / elapsed : 0;
+        }
+        
+        public void finish(String error) {
+            this.finishedAt = System.currentTimeMillis();
+            this.error = error;
+            this.status = error == null ? COMPLETED : FAILED;
+        }
+        
+        Map<String, Object> toMap() {
+            Map<String, Object> result = new HashMap<>();
+            result.put("status", status);
+            result.put("imported", imported.get());
+            result.put("inserted", inserted.get());
+            result.put("updated", updated.get());
+            result.put("deleted", deleted.get());
+            result.put("unchanged", unchanged.get());
+            result.put("elapsed_ms", getElapsedMs());
+            result.put("rows_per_second", getRowsPerSecond());
+            if (error != null) {
+                result.put("error", error);
+            }
+            return result;
+        }
+    }
+}
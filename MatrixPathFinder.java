@@ -0,0 +1,160 @@
+package ru.moscow.wifi.graph;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Матрица стоимостей путей между множеством начальных и конечных точек по компактному графу
+ *
+ * Вместо отдельного поиска для каждой пары выполняется один Dijkstra на начальную точку:
+ * все конечные точки добавлены в граф как тупиковые узлы, поиск останавливается,
+ * когда достигнуты все они. Начальные точки обрабатываются параллельно
+ */
+public class MatrixPathFinder {
+    public static final float UNREACHABLE = -1; // стоимость для недостижимой пары
+    
+    /**
+     * Посчитать стоимости путей (те же веса рёбер и приоритет Wi-Fi, что и в CompactPathFinder)
+     *
+     * @param sources начальные точки [lat, lng]
+     * @param targets конечные точки [lat, lng]
+     * @param wifiPriority приоритет точек Wi-Fi (1.0 = без приоритета, < 1.0 = приоритет выше)
+     * @return матрица sources.size() x targets.size() по строкам: стоимость от sources[i] до targets[j]
+     *         в элементе i * targets.size() + j, UNREACHABLE - пути нет
+     */
+    public float[] computeMatrix(CompactWifiGraph graph, List<double[]> sources, List<double[]> targets,
+                                 double wifiPriority) {
+        Targets linked = new Targets(graph, targets);
+        float[] matrix = new float[sources.size() * targets.size()];
+        Arrays.fill(matrix, UNREACHABLE);
+        
+        // Каждая строка пишется только своим поиском
+        IntStream.range(0, sources.size()).parallel().forEach(row ->
+                searchRow(graph, linked, sources.get(row), wifiPriority, matrix, row * targets.size()));
+        return matrix;
+    }
+    
+    /**
+     * Dijkstra от одной начальной точки. Номера узлов: 0..n-1 - граф, n..n+m-1 - конечные точки, n+m - начало
+     */
+    private void searchRow(CompactWifiGraph graph, Targets linked, double[] source, double wifiPriority,
+                           float[] matrix, int rowOffset) {
+        int n = graph.getNodeCount();
+        int m = linked.size();
+        int start = n + m;
+        
+        SearchState state = SearchState.acquire(n + m + 1);
+        try {
+            NodeHeap queue = state.getQueue();
+            state.update(start, 0.0, -1);
+            queue.add(start, 0.0);
+            
+            int remaining = m;
+            while (!queue.isEmpty() && remaining > 0) {
+                int current = queue.poll();
+                if (state.isSettled(current)) {
+                    continue;
+                }
+                state.settle(current);
+                
+                if (current >= n && current < start) {
+                    // Конечная точка: путь через неё дальше не идёт
+                    matrix[rowOffset + current - n] = (float) state.getDistance(current);
+                    remaining--;
+                    continue;
+                }
+                
+                double distance = state.getDistance(current);
+                if (current == start) {
+                    graph.forEachLink(source[0], source[1],
+                            (node, weight) -> relax(state, current, node, distance + weight * wifiPriority));
+                    for (int j = 0; j < m; j++) {
+                        float weight = linked.directWeight(source, j);
+                        if (!Float.isNaN(weight)) {
+                            relax(state, current, n + j, distance + weight);
+                        }
+                    }
+                    continue;
+                }
+                
+                for (int e = graph.getEdgeStart(current); e < graph.getEdgeEnd(current); e++) {
+                    relax(state, current, graph.getTarget(e), distance + graph.getWeight(e) * wifiPriority);
+                }
+                for (int e = linked.getEdgeStart(current); e < linked.getEdgeEnd(current); e++) {
+                    relax(state, current, n + linked.getTarget(e), distance + linked.getWeight(e));
+                }
+            }
+        } finally {
+            state.release();
+        }
+    }
+    
+    private void relax(SearchState state, int node, int neighbor, double newDistance) {
+        if (!state.isSettled(neighbor) && newDistance < state.getDistance(neighbor)) {
+            state.update(neighbor, newDistance, node);
+            state.getQueue().add(neighbor, newDistance);
+        }
+    }
+    
+    /**
+     * Конечные точки и их рёбра к узлам графа, сгруппированные по узлу графа (CSR)
+     */
+    private static class Targets {
+        private final List<double[]> points;
+        private final int[] offsets;
+        private final int[] targets;
+        private final float[] weights;
+        
+        Targets(CompactWifiGraph graph, List<double[]> points) {
+            this.points = points;
+            int n = graph.getNodeCount();
+            
+            // Два прохода: сначала число рёбер у каждого узла графа, затем сами рёбра
+            this.offsets = new int[n + 1];
+            for (double[] point : points) {
+                graph.forEachLink(point[0], point[1], (node, weight) -> offsets[node + 1]++);
+            }
+            for (int i = 0; i < n; i++) {
+                offsets[i + 1] += offsets[i];
+            }
+            
+            this.targets = new int[offsets[n]];
+            this.weights = new float[offsets[n]];
+            int[] position = Arrays.copyOf(offsets, n);
+            for (int j = 0; j < points.size(); j++) {
+                int target = j;
+                double[] point = points.get(j);
+                graph.forEachLink(point[0], point[1], (node, weight) -> {
+                    targets[position[node]] = target;
+                    weights[position[node]++] = weight;
+                });
+            }
+        }
+        
+        int size() {
+            return points.size();
+        }
+        
+        int getEdgeStart(int node) {
+            return offsets[node];
+        }
+        
+        int getEdgeEnd(int node) {
+            return offsets[node + 1];
+        }
+        
+        int getTarget(int edge) {
+            return targets[edge];
+        }
+        
+        float getWeight(int edge) {
+            return weights[edge];
+        }
+        
+        float directWeight(double[] source, int target) {
+            double[] point = points.get(target);
+            return CompactWifiGraph.directWeight(source[0], source[1], point[0], point[1]);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package ru.moscow.wifi.dto;
+
+import java.util.List;
+
+public class MatrixRequest {
+    private List<double[]> sources; // начальные точки [lat, lng]
+    private List<double[]> targets; // конечные точки [lat, lng]
+    private Double wifiPriority; // приоритет точек Wi-Fi (1.0 = без приоритета, < 1.0 = приоритет выше)
+
+    public MatrixRequest() {}
+
+    // Getters and Setters
+    public List<double[]> getSources() {
+        return sources;
+    }
+
+    public void setSources(List<double[]> sources) {
+        this.sources = sources;
+    }
+
+    public List<double[]> getTargets() {
+        return targets;
+    }
+
+    public void setTargets(List<double[]> targets) {
+        this.targets = targets;
+    }
+
+    public Double getWifiPriority() {
+        return wifiPriority;
+    }
+
+    public void setWifiPriority(Double wifiPriority) {
+        this.wifiPriority = wifiPriority;
+    }
+}
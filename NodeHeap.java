@@ -0,0 +1,90 @@
+package ru.moscow.wifi.graph;
+
+import java.util.Arrays;
+
+/**
+ * Двоичная куча номеров узлов с приоритетом типа double
+ * Устаревшие записи не удаляются, их пропускает алгоритм поиска
+ */
+class NodeHeap {
+    private double[] keys = new double[64];
+    private int[] nodes = new int[64];
+    private int size = 0;
+    
+    void clear() {
+        size = 0;
+    }
+    
+    boolean isEmpty() {
+        return size == 0;
+    }
+    
+    void add(int node, double key) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            nodes = Arrays.copyOf(nodes, size * 2);
+        }
+        
+        // Поднимаем новый элемент вверх
+        int i = size++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (keys[parent] <= key) {
+                break;
+            }
+            keys[i] = keys[parent];
+            nodes[i] = nodes[parent];
+            i = parent;
+        }
+        keys[i] = key;
+        nodes[i] = node;
+    }
+    
+    /**
+     * Минимальный приоритет в куче
+     */
+    double peekKey() {
+        return keys[0];
+    }
+    
+    /**
+     * Узел с минимальным приоритетом
+     */
+    int peekNode() {
+        return nodes[0];
+    }
+    
+    /**
+     * Удалить узел с минимальным приоритетом и вернуть его номер
+     */
+    int poll() {
+        int result = nodes[0];
+        size--;
+        if (size == 0) {
+            return result;
+        }
+        
+        // Опускаем последний элемент вниз
+        double key = keys[size];
+        int node = nodes[size];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && keys[child + 1] < keys[child]) {
+                child++;
+            }
+            if (key <= keys[child]) {
+                break;
+            }
+            keys[i] = keys[child];
+            nodes[i] = nodes[child];
+            i = child;
+        }
+        keys[i] = key;
+        nodes[i] = node;
+        return result;
+    }
+}
@@ -0,0 +1,43 @@
+package ru.moscow.wifi.graph;
+
+import java.util.List;
+
+/**
+ * Результат поиска пути: сам путь и статистика поиска
+ */
+public class PathResult {
+    private final List<GraphNode> path;
+    private final SearchAlgorithm algorithm;
+    private final int expandedNodes; // количество узлов, извлечённых из очереди и обработанных
+    
+    public PathResult(List<GraphNode> path, SearchAlgorithm algorithm, int expandedNodes) {
+        this.path = path;
+        this.algorithm = algorithm;
+        this.expandedNodes = expandedNodes;
+    }
+    
+    /**
+     * Путь от A до B или null, если путь не найден
+     */
+    public List<GraphNode> getPath() {
+        return path;
+    }
+    
+    public SearchAlgorithm getAlgorithm() {
+        return algorithm;
+    }
+    
+    public int getExpandedNodes() {
+        return expandedNodes;
+    }
+    
+    public boolean isFound() {
+        return path != null;
+    }
+    
+    @Override
+    public String toString() {
+        return "PathResult{algorithm=" + algorithm + ", found=" + isFound()
+                + ", expandedNodes=" + expandedNodes + "}";
+    }
+}
@@ -0,0 +1,110 @@
+package ru.moscow.wifi.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Упрощение и уплотнение ломаной маршрута (вершины [lat, lng])
+ */
+public class PolylineUtil {
+    
+    private PolylineUtil() {}
+    
+    /**
+     * Упростить ломаную алгоритмом Дугласа-Пекера
+     * Остаются вершины, без которых ломаная отклонилась бы больше чем на toleranceMeters
+     */
+    public static List<double[]> simplify(List<double[]> points, double toleranceMeters) {
+        int n = points.size();
+        if (n < 3) {
+            return new ArrayList<>(points);
+        }
+        
+        boolean[] keep = new boolean[n];
+        keep[0] = true;
+        keep[n - 1] = true;
+        
+        // Стек отрезков [first, last] вместо рекурсии: у длинных маршрутов тысячи вершин
+        Deque<int[]> stack = new ArrayDeque<>();
+        stack.push(new int[]{0, n - 1});
+        while (!stack.isEmpty()) {
+            int[] range = stack.pop();
+            int first = range[0];
+            int last = range[1];
+            double[] a = points.get(first);
+            double[] b = points.get(last);
+            
+            int farthest = -1;
+            double maxDistance = toleranceMeters;
+            for (int i = first + 1; i < last; i++) {
+                double[] p = points.get(i);
+                double distance = RouteCorridor.distanceToSegment(p[0], p[1], a[0], a[1], b[0], b[1]);
+                if (distance > maxDistance) {
+                    maxDistance = distance;
+                    farthest = i;
+                }
+            }
+            
+            if (farthest != -1) {
+                keep[farthest] = true;
+                stack.push(new int[]{first, farthest});
+                stack.push(new int[]{farthest, last});
+            }
+        }
+        
+        List<double[]> result = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            if (keep[i]) {
+                result.add(points.get(i));
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Уплотнить ломаную: разбить отрезки так, чтобы ни один не был длиннее stepMeters
+     * Если вершин получилось бы больше maxPoints, шаг увеличивается до длины маршрута / (maxPoints - 1).
+     * Если уже исходных вершин не меньше maxPoints, ломаная сначала упрощается с растущим допуском,
+     * так что результат всегда не длиннее maxPoints вершин
+     */
+    public static List<double[]> densify(List<double[]> points, double stepMeters, int maxPoints) {
+        if (points.size() < 2) {
+            return new ArrayList<>(points);
+        }
+        
+        List<double[]> source = points;
+        for (double tolerance = 1; points.size() > 2 && points.size() >= maxPoints; tolerance *= 2) {
+            points = simplify(source, tolerance);
+        }
+        
+        double[] lengths = new double[points.size() - 1];
+        double totalLength = 0;
+        for (int i = 0; i < lengths.length; i++) {
+            double[] a = points.get(i);
+            double[] b = points.get(i + 1);
+            lengths[i] = GeometryUtil.calculateDistance(a[0], a[1], b[0], b[1]);
+            totalLength += lengths[i];
+        }
+        
+        // Каждый отрезок даёт не больше length / step + 1 новых вершин
+        double step = stepMeters;
+        if (totalLength / step + lengths.length + 1 > maxPoints) {
+            step = Math.max(stepMeters, totalLength / Math.max(1, maxPoints - lengths.length - 1));
+        }
+        
+        List<double[]> result = new ArrayList<>();
+        result.add(points.get(0));
+        for (int i = 0; i < lengths.length; i++) {
+            double[] a = points.get(i);
+            double[] b = points.get(i + 1);
+            int pieces = Math.max(1, (int) Math.ceil(lengths[i] / step));
+            for (int piece = 1; piece <= pieces; piece++) {
+                double t = (double) piece / pieces;
+                result.add(piece == pieces ? b : new double[]{a[0] + (b[0] - a[0]) * t, a[1] + (b[1] - a[1]) * t});
+            }
+        }
+        return result;
+    }
+}
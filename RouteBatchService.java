@@ -0,0 +1,125 @@
+package ru.moscow.wifi.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import ru.moscow.wifi.cache.RouteResultCache;
+import ru.moscow.wifi.cache.WifiPointSnapshot;
+import ru.moscow.wifi.dto.RouteRequest;
+import ru.moscow.wifi.dto.RouteResponse;
+import ru.moscow.wifi.graph.SearchAlgorithm;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Пакетное построение маршрутов для множества пар A-B
+ *
+ * Все маршруты пакета строятся по одному снимку точек (и графу, построенному по нему).
+ * Одновременно строится не больше wifi.route.batch.parallelism маршрутов, чтобы пакет
+ * не переполнил очередь запросов к маршрутизатору. Готовые ответы пишутся в поток
+ * в формате NDJSON в порядке готовности, каждая строка - {"index": номер пары, "response": ...}
+ */
+@Service
+public class RouteBatchService {
+    
+    @Autowired
+    private RouteOptimizationService routeOptimizationService;
+    
+    @Autowired
+    private RouteStrategyService routeStrategyService;
+    
+    @Autowired
+    private RouteResultCache routeResultCache;
+    
+    @Autowired
+    private WifiPointSnapshotService wifiPointSnapshotService;
+    
+    @Autowired
+    private ObjectMapper objectMapper;
+    
+    @Value("${wifi.route.batch.parallelism:16}")
+    private int parallelism;
+    
+    @Value("${wifi.route.batch.max-size:10000}")
+    private int maxSize;
+    
+    public int getMaxSize() {
+        return maxSize;
+    }
+    
+    /**
+     * Построить маршруты и записать ответы в out по мере готовности
+     * Запись идёт только из вызывающего потока, потоки построения маршрутов лишь кладут ответы в очередь
+     */
+    public void streamRoutes(List<RouteRequest> requests, OutputStream out) throws IOException {
+        long start = System.currentTimeMillis();
+        long generation = routeResultCache.getGeneration();
+        WifiPointSnapshot snapshot = wifiPointSnapshotService.getRoutingSnapshot();
+        
+        BlockingQueue<Map<String, Object>> completed = new LinkedBlockingQueue<>();
+        int submitted = 0;
+        int written = 0;
+        
+        while (written < requests.size()) {
+            while (submitted < requests.size() && submitted - written < parallelism) {
+                int index = submitted++;
+                buildRoute(requests.get(index), snapshot, generation).whenComplete((response, e) -> {
+                    Map<String, Object> line = new LinkedHashMap<>();
+                    line.put("index", index);
+                    line.put("response", response != null ? response : failure(null));
+                    completed.add(line);
+                });
+            }
+            
+            Map<String, Object> line;
+            try {
+                line = completed.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Пакетное построение маршрутов прервано", e);
+            }
+            
+            out.write(objectMapper.writeValueAsBytes(line));
+            out.write('\n');
+            out.flush();
+            written++;
+        }
+        
+        System.out.println("Пакет из " + requests.size() + " маршрутов построен за "
+                + (System.currentTimeMillis() - start) + " мс");
+    }
+    
+    private CompletableFuture<RouteResponse> buildRoute(RouteRequest request, WifiPointSnapshot snapshot,
+                                                        long generation) {
+        if (request == null || request.getFromLat() == null || request.getFromLng() == null
+                || request.getToLat() == null || request.getToLng() == null) {
+            return CompletableFuture.completedFuture(failure(null));
+        }
+        
+        // Неизвестная стратегия или алгоритм - ошибка этой пары, остальные пары строятся
+        SearchAlgorithm algorithm = request.getAlgorithm() != null ? SearchAlgorithm.parse(request.getAlgorithm()) : null;
+        if (!routeStrategyService.hasStrategy(request.getOptimizeFor())
+                || (request.getAlgorithm() != null && algorithm == null)) {
+            return CompletableFuture.completedFuture(failure(request.getOptimizeFor()));
+        }
+        
+        return routeOptimizationService.buildOptimizedRoute(
+                request.getFromLat(), request.getFromLng(), request.getToLat(), request.getToLng(),
+                request.getMaxDeviation(), request.getOptimizeFor(), algorithm, snapshot, generation);
+    }
+    
+    private RouteResponse failure(String strategy) {
+        RouteResponse response = new RouteResponse();
+        response.setSuccess(false);
+        response.setStrategy(strategy);
+        return response;
+    }
+}
@@ -0,0 +1,99 @@
+package ru.moscow.wifi.route;
+
+import ru.moscow.wifi.cache.WifiPointSnapshot;
+import ru.moscow.wifi.graph.SearchAlgorithm;
+
+import java.util.List;
+
+/**
+ * Входные данные для стратегии: точки A и B, базовый маршрут от маршрутизатора, параметры запроса
+ * и снимок точек Wi-Fi, по которому строится маршрут
+ */
+public class RouteContext {
+    private final double fromLat;
+    private final double fromLng;
+    private final double toLat;
+    private final double toLng;
+    private final List<double[]> baseRoute;
+    private final int maxDeviation;
+    private final SearchAlgorithm algorithm; // null - стратегия выбирает алгоритм сама
+    private final WifiPointSnapshot snapshot;
+    private final long deadline; // System.currentTimeMillis(), после которого стратегия прекращает работу
+    
+    public RouteContext(double fromLat, double fromLng, double toLat, double toLng,
+                        List<double[]> baseRoute, int maxDeviation, SearchAlgorithm algorithm,
+                        WifiPointSnapshot snapshot) {
+        this(fromLat, fromLng, toLat, toLng, baseRoute, maxDeviation, algorithm, snapshot, Long.MAX_VALUE);
+    }
+    
+    private RouteContext(double fromLat, double fromLng, double toLat, double toLng,
+                         List<double[]> baseRoute, int maxDeviation, SearchAlgorithm algorithm,
+                         WifiPointSnapshot snapshot, long deadline) {
+        this.fromLat = fromLat;
+        this.fromLng = fromLng;
+        this.toLat = toLat;
+        this.toLng = toLng;
+        this.baseRoute = baseRoute;
+        this.maxDeviation = maxDeviation;
+        this.algorithm = algorithm;
+        this.snapshot = snapshot;
+        this.deadline = deadline;
+    }
+    
+    /**
+     * Тот же контекст с крайним сроком построения маршрута
+     */
+    public RouteContext withDeadline(long deadline) {
+        return new RouteContext(fromLat, fromLng, toLat, toLng, baseRoute, maxDeviation, algorithm,
+                snapshot, deadline);
+    }
+    
+    public double getFromLat() {
+        return fromLat;
+    }
+    
+    public double getFromLng() {
+        return fromLng;
+    }
+    
+    public double getToLat() {
+        return toLat;
+    }
+    
+    public double getToLng() {
+        return toLng;
+    }
+    
+    /**
+     * Базовый маршрут [lat, lng] от маршрутизатора
+     */
+    public List<double[]> getBaseRoute() {
+        return baseRoute;
+    }
+    
+    public int getMaxDeviation() {
+        return maxDeviation;
+    }
+    
+    public SearchAlgorithm getAlgorithm() {
+        return algorithm;
+    }
+    
+    public WifiPointSnapshot getSnapshot() {
+        return snapshot;
+    }
+    
+    /**
+     * Крайний срок в миллисекундах System.currentTimeMillis() (Long.MAX_VALUE - без ограничения)
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+    
+    /**
+     * Бюджет стратегии исчерпан или поток прерван: результат уже не нужен, стратегия возвращает null
+     */
+    public boolean isExpired() {
+        return System.currentTimeMillis() > deadline || Thread.currentThread().isInterrupted();
+    }
+}
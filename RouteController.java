@@ -1,10 +1,27 @@
 package ru.moscow.wifi.controller;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import ru.moscow.wifi.cache.RouteResultCache;
+import ru.moscow.wifi.dto.MatrixRequest;
+import ru.moscow.wifi.dto.RouteRequest;
 import ru.moscow.wifi.dto.RouteResponse;
+import ru.moscow.wifi.graph.MatrixPathFinder;
+import ru.moscow.wifi.graph.SearchAlgorithm;
+import ru.moscow.wifi.service.RouteBatchService;
 import ru.moscow.wifi.service.RouteOptimizationService;
+import ru.moscow.wifi.service.RouteStrategyService;
+import ru.moscow.wifi.service.WifiGraphService;
+import ru.moscow.wifi.service.YandexRouteService;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 @RequestMapping("/api/route")
@@ -14,19 +31,136 @@ public class RouteController {
     @Autowired
     private RouteOptimizationService routeOptimizationService;
     
-    // Построить оптимизированный маршрут
+    @Autowired
+    private RouteBatchService routeBatchService;
+    
+    @Autowired
+    private RouteStrategyService routeStrategyService;
+    
+    @Autowired
+    private RouteResultCache routeResultCache;
+    
+    @Autowired
+    private YandexRouteService yandexRouteService;
+    
+    @Autowired
+    private WifiGraphService wifiGraphService;
+    
+    @Value("${wifi.route.coverage.wifi-priority:0.5}")
+    private double defaultWifiPriority;
+    
+    @Value("${wifi.route.matrix.max-cells:250000}")
+    private int matrixMaxCells;
+    
+    // Построить оптимизированный маршрут (асинхронно: поток сервлета освобождается до готовности маршрута)
     @GetMapping
-    public ResponseEntity<RouteResponse> buildRoute(
+    public CompletableFuture<ResponseEntity<RouteResponse>> buildRoute(
             @RequestParam Double from_lat,
             @RequestParam Double from_lng,
             @RequestParam Double to_lat,
             @RequestParam Double to_lng,
             @RequestParam(required = false) String optimize_for,
-            @RequestParam(required = false) Integer max_deviation) {
+            @RequestParam(required = false) Integer max_deviation,
+            @RequestParam(required = false) String algorithm) {
         
-        RouteResponse response = routeOptimizationService.buildOptimizedRoute(
-                from_lat, from_lng, to_lat, to_lng, max_deviation);
+        // Неизвестная стратегия или алгоритм - ошибка запроса, а не тихая подмена
+        SearchAlgorithm searchAlgorithm = algorithm != null ? SearchAlgorithm.parse(algorithm) : null;
+        if (!routeStrategyService.hasStrategy(optimize_for) || (algorithm != null && searchAlgorithm == null)) {
+            RouteResponse error = new RouteResponse();
+            error.setSuccess(false);
+            error.setStrategy(optimize_for);
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body(error));
+        }
         
+        return routeOptimizationService.buildOptimizedRoute(
+                        from_lat, from_lng, to_lat, to_lng, max_deviation, optimize_for, searchAlgorithm)
+                .handle((response, e) -> {
+                    if (e == null) {
+                        return ResponseEntity.ok(response);
+                    }
+                    // Прочие ошибки уже в ответе (success = false), исключение - только переполненный пул
+                    RouteResponse error = new RouteResponse();
+                    error.setSuccess(false);
+                    return ResponseEntity.status(503).body(error);
+                });
+    }
+    
+    // Построить маршруты для списка пар A-B, ответы отдаются в формате NDJSON по мере готовности
+    @PostMapping(value = "/batch", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> buildRoutes(@RequestBody List<RouteRequest> requests) {
+        if (requests == null || requests.isEmpty() || requests.size() > routeBatchService.getMaxSize()) {
+            return ResponseEntity.badRequest().build();
+        }
+        
+        StreamingResponseBody body = out -> routeBatchService.streamRoutes(requests, out);
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+    }
+    
+    // Матрица стоимостей путей по графу Wi-Fi: costs[i * cols + j] - от sources[i] до targets[j]
+    @PostMapping("/matrix")
+    public ResponseEntity<Map<String, Object>> buildMatrix(@RequestBody MatrixRequest request) {
+        Map<String, Object> response = new HashMap<>();
+        List<double[]> sources = request.getSources();
+        List<double[]> targets = request.getTargets();
+        
+        if (!isValidPoints(sources) || !isValidPoints(targets)
+                || (long) sources.size() * targets.size() > matrixMaxCells) {
+            response.put("success", false);
+            response.put("message", "Нужны непустые списки sources и targets из пар [lat, lng] с широтой"
+                    + " от -90 до 90 и долготой от -180 до 180, не больше "
+                    + matrixMaxCells + " ячеек матрицы");
+            return ResponseEntity.badRequest().body(response);
+        }
+        
+        // Множитель веса ребра: при значении <= 0 веса становятся отрицательными и Dijkstra неприменим
+        double wifiPriority = request.getWifiPriority() != null ? request.getWifiPriority() : defaultWifiPriority;
+        if (!Double.isFinite(wifiPriority) || wifiPriority <= 0 || wifiPriority > 1) {
+            response.put("success", false);
+            response.put("message", "wifiPriority должен быть в диапазоне (0, 1]");
+            return ResponseEntity.badRequest().body(response);
+        }
+        
+        long start = System.currentTimeMillis();
+        float[] costs = wifiGraphService.computeMatrix(sources, targets, wifiPriority);
+        if (costs == null) {
+            response.put("success", false);
+            response.put("message", "Граф Wi-Fi ещё не построен");
+            return ResponseEntity.status(503).body(response);
+        }
+        
+        response.put("success", true);
+        response.put("rows", sources.size());
+        response.put("cols", targets.size());
+        response.put("costs", costs);
+        response.put("unreachable", MatrixPathFinder.UNREACHABLE);
+        response.put("compute_time_ms", System.currentTimeMillis() - start);
+        return ResponseEntity.ok(response);
+    }
+    
+    private boolean isValidPoints(List<double[]> points) {
+        if (points == null || points.isEmpty()) {
+            return false;
+        }
+        for (double[] point : points) {
+            if (point == null || point.length != 2) {
+                return false;
+            }
+            // NaN и координаты вне диапазона ломают расчёт ячеек сетки и дают строки из UNREACHABLE
+            if (!Double.isFinite(point[0]) || !Double.isFinite(point[1])
+                    || point[0] < -90 || point[0] > 90 || point[1] < -180 || point[1] > 180) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    // Счётчики кэша маршрутов и кэша базовых маршрутов от маршрутизатора
+    @GetMapping("/cache")
+    public ResponseEntity<Map<String, Object>> getCacheStats() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("cache", routeResultCache.getStats());
+        response.put("router_cache", yandexRouteService.getStats());
         return ResponseEntity.ok(response);
     }
 }
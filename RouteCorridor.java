@@ -0,0 +1,126 @@
+package ru.moscow.wifi.util;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * Поиск точек в коридоре заданной ширины вокруг ломаной маршрута.
+ * Ломаная обходится один раз: каждый отрезок режется на куски не длиннее MAX_PIECE_LENGTH,
+ * и для куска просматриваются только ячейки сетки вокруг него
+ */
+public class RouteCorridor {
+    private static final double METERS_PER_DEGREE = 111320; // длина одного градуса широты в метрах
+    private static final double MAX_PIECE_LENGTH = 500;     // длина куска отрезка для запроса к сетке в метрах
+    
+    private RouteCorridor() {}
+    
+    /**
+     * Найти точки на расстоянии не больше radiusMeters от ломаной
+     *
+     * @param route вершины ломаной [lat, lng]
+     * @param lats широты точек
+     * @param lngs долготы точек
+     * @param grid сетка, построенная по lats/lngs
+     * @param radiusMeters полуширина коридора в метрах
+     * @return индексы точек в порядке их появления вдоль маршрута, без повторов
+     */
+    public static int[] findPoints(List<double[]> route, double[] lats, double[] lngs,
+                                   SpatialGrid grid, double radiusMeters) {
+        Collector collector = new Collector(lats, lngs, radiusMeters);
+        if (route.isEmpty()) {
+            return collector.toArray();
+        }
+        
+        // Маршрут из одной вершины - вырожденный отрезок
+        int segments = Math.max(1, route.size() - 1);
+        for (int i = 0; i < segments; i++) {
+            double[] from = route.get(i);
+            double[] to = route.get(Math.min(i + 1, route.size() - 1));
+            
+            double length = GeometryUtil.calculateDistance(from[0], from[1], to[0], to[1]);
+            int pieces = Math.max(1, (int) Math.ceil(length / MAX_PIECE_LENGTH));
+            for (int piece = 0; piece < pieces; piece++) {
+                collector.setSegment(
+                        from[0] + (to[0] - from[0]) * piece / pieces,
+                        from[1] + (to[1] - from[1]) * piece / pieces,
+                        from[0] + (to[0] - from[0]) * (piece + 1) / pieces,
+                        from[1] + (to[1] - from[1]) * (piece + 1) / pieces);
+                
+                double dLat = radiusMeters / METERS_PER_DEGREE;
+                double maxAbsLat = Math.min(Math.max(Math.abs(collector.lat1), Math.abs(collector.lat2)) + dLat, 89.9);
+                double dLng = radiusMeters / (METERS_PER_DEGREE * Math.cos(Math.toRadians(maxAbsLat)));
+                grid.forEachCandidate(
+                        Math.min(collector.lat1, collector.lat2) - dLat, Math.max(collector.lat1, collector.lat2) + dLat,
+                        Math.min(collector.lng1, collector.lng2) - dLng, Math.max(collector.lng1, collector.lng2) + dLng,
+                        collector);
+            }
+        }
+        
+        return collector.toArray();
+    }
+    
+    /**
+     * Расстояние от точки до отрезка в метрах
+     * Ближайшая точка отрезка ищется в локальной плоской проекции, расстояние до неё - по сфере
+     */
+    public static double distanceToSegment(double lat, double lng,
+                                           double lat1, double lng1, double lat2, double lng2) {
+        double scaleLng = Math.cos(Math.toRadians(lat));
+        double dx = (lng2 - lng1) * scaleLng;
+        double dy = lat2 - lat1;
+        double lengthSquared = dx * dx + dy * dy;
+        
+        double t = 0;
+        if (lengthSquared > 0) {
+            t = ((lng - lng1) * scaleLng * dx + (lat - lat1) * dy) / lengthSquared;
+            t = Math.max(0, Math.min(1, t));
+        }
+        
+        return GeometryUtil.calculateDistance(lat, lng, lat1 + (lat2 - lat1) * t, lng1 + (lng2 - lng1) * t);
+    }
+    
+    /**
+     * Проверяет кандидатов из сетки против текущего куска отрезка и запоминает подошедшие
+     */
+    private static class Collector implements IntConsumer {
+        private final double[] lats;
+        private final double[] lngs;
+        private final double radiusMeters;
+        private final boolean[] found;
+        private int[] result = new int[16];
+        private int size = 0;
+        
+        double lat1, lng1, lat2, lng2;
+        
+        Collector(double[] lats, double[] lngs, double radiusMeters) {
+            this.lats = lats;
+            this.lngs = lngs;
+            this.radiusMeters = radiusMeters;
+            this.found = new boolean[lats.length];
+        }
+        
+        void setSegment(double lat1, double lng1, double lat2, double lng2) {
+            this.lat1 = lat1;
+            this.lng1 = lng1;
+            this.lat2 = lat2;
+            this.lng2 = lng2;
+        }
+        
+        @Override
+        public void accept(int j) {
+            if (found[j] || distanceToSegment(lats[j], lngs[j], lat1, lng1, lat2, lng2) > radiusMeters) {
+                return;
+            }
+            found[j] = true;
+            if (size == result.length) {
+                result = Arrays.copyOf(result, size * 2);
+            }
+            result[size++] = j;
+        }
+        
+        int[] toArray() {
+            return Arrays.copyOf(result, size);
+        }
+    }
+}
@@ -1,200 +1,240 @@
 package ru.moscow.wifi.service;
 
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import ru.moscow.wifi.cache.RouteResultCache;
+import ru.moscow.wifi.cache.WifiPointSnapshot;
 import ru.moscow.wifi.dto.RouteResponse;
 import ru.moscow.wifi.dto.WifiPointDTO;
+import ru.moscow.wifi.graph.SearchAlgorithm;
 import ru.moscow.wifi.model.WifiPoint;
-import ru.moscow.wifi.repository.WifiPointRepository;
+import ru.moscow.wifi.route.RouteContext;
+import ru.moscow.wifi.route.RouteStrategyResult;
 import ru.moscow.wifi.util.GeometryUtil;
+import ru.moscow.wifi.util.SegmentCoverage;
+import ru.moscow.wifi.util.TaskExecutors;
+import ru.moscow.wifi.util.WifiPointIndex;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Сервис для оптимизации маршрута с максимальным покрытием Wi-Fi
+ *
+ * Маршрут строится асинхронно: запрос к маршрутизатору выполняется на виртуальных потоках
+ * (или в пуле на старых JVM, переполненный пул отклоняет запрос), стратегия - в пуле RouteStrategyService,
+ * ни поток сервлета, ни потоки конвейера не ждут
  */
 @Service
 public class RouteOptimizationService {
     
     @Autowired
-    private WifiPointRepository wifiPointRepository;
+    private WifiPointSnapshotService wifiPointSnapshotService;
     
     @Autowired
     private YandexRouteService yandexRouteService;
     
+    @Autowired
+    private RouteStrategyService routeStrategyService;
+    
+    @Autowired
+    private RouteResultCache routeResultCache;
+    
     private static final int COVERAGE_RADIUS = 50; // радиус покрытия Wi-Fi в метрах
     private static final int MAX_DEVIATION = 200; // максимальное отклонение в метрах
+    private static final int SEARCH_RADIUS = 200; // радиус поиска точек вокруг маршрута в метрах
+    private static final double INDEX_CELL_SIZE = 100; // размер ячейки индекса точек маршрута в метрах
+    
+    // Размер пула, если виртуальные потоки недоступны
+    @Value("${wifi.route.pipeline.threads:64}")
+    private int pipelineThreads;
+    
+    private ExecutorService executor;
+    
+    @PostConstruct
+    public void init() {
+        executor = TaskExecutors.newIoExecutor("route-pipeline", pipelineThreads);
+    }
     
     /**
      * Построить оптимизированный маршрут
+     * Повторные запросы с близкими точками A и B и теми же параметрами отдаются из RouteResultCache
+     *
+     * @param optimizeFor стратегия: "distance", "coverage" или "balanced" (null - стратегия по умолчанию)
+     * @param algorithm алгоритм поиска по графу для стратегии "coverage" (null - выбирает стратегия)
      */
-    public RouteResponse buildOptimizedRoute(double fromLat, double fromLng, 
-                                            double toLat, double toLng,
-                                            Integer maxDeviation) {
-        RouteResponse response = new RouteResponse();
-        response.setSuccess(true);
-        
-        try {
-            // 1. Получить базовый маршрут
-            List<double[]> baseRoute = yandexRouteService.getBaseRoute(fromLat, fromLng, toLat, toLng);
-            
-            // 2. Найти точки Wi-Fi в радиусе от маршрута
-            List<WifiPoint> wifiPoints = findWifiPointsNearRoute(baseRoute, 200);
-            
-            // 3. Оптимизировать маршрут
-            List<RouteResponse.Coordinate> optimizedRoute = optimizeRoute(
-                    baseRoute, wifiPoints, maxDeviation != null ? maxDeviation : MAX_DEVIATION);
-            
-            // 4. Найти зоны покрытия
-            List<RouteResponse.CoverageZone> coverageZones = findCoverageZones(
-                    optimizedRoute, wifiPoints);
-            
-            // 5. Вычислить статистику
-            RouteResponse.RouteStatistics statistics = calculateStatistics(
-                    optimizedRoute, coverageZones, wifiPoints);
-            
-            response.setRoute(optimizedRoute);
-            response.setCoverageZones(coverageZones);
-            response.setStatistics(statistics);
-            
-        } catch (Exception e) {
-            response.setSuccess(false);
-            System.err.println("Ошибка построения маршрута: " + e.getMessage());
-            e.printStackTrace();
-        }
-        
-        return response;
+    public CompletableFuture<RouteResponse> buildOptimizedRoute(double fromLat, double fromLng, 
+                                                               double toLat, double toLng,
+                                                               Integer maxDeviation,
+                                                               String optimizeFor,
+                                                               SearchAlgorithm algorithm) {
+        long generation = routeResultCache.getGeneration();
+        return buildOptimizedRoute(fromLat, fromLng, toLat, toLng, maxDeviation, optimizeFor, algorithm,
+                wifiPointSnapshotService.getRoutingSnapshot(), generation);
     }
     
     /**
-     * Найти точки Wi-Fi в радиусе от маршрута
+     * Построить маршрут по заданному снимку точек (пакетный запрос строит все маршруты по одному снимку)
+     *
+     * @param generation поколение RouteResultCache, прочитанное до получения снимка
      */
-    private List<WifiPoint> findWifiPointsNearRoute(List<double[]> route, int searchRadius) {
-        Set<Integer> foundIds = new HashSet<>();
-        List<WifiPoint> result = new ArrayList<>();
-        
-        for (double[] point : route) {
-            List<WifiPoint> nearby = wifiPointRepository.findNearLocation(
-                    point[0], point[1], searchRadius);
-            
-            for (WifiPoint wifiPoint : nearby) {
-                if (!foundIds.contains(wifiPoint.getId())) {
-                    foundIds.add(wifiPoint.getId());
-                    result.add(wifiPoint);
-                }
-            }
+    public CompletableFuture<RouteResponse> buildOptimizedRoute(double fromLat, double fromLng,
+                                                               double toLat, double toLng,
+                                                               Integer maxDeviation,
+                                                               String optimizeFor,
+                                                               SearchAlgorithm algorithm,
+                                                               WifiPointSnapshot snapshot,
+                                                               long generation) {
+        // Ключ кэша и маршрут - по действующим значениям: запрос без параметра и запрос
+        // с явным значением по умолчанию - один и тот же маршрут и одна запись кэша
+        int deviation = maxDeviation != null ? maxDeviation : MAX_DEVIATION;
+        String strategy = routeStrategyService.resolveName(optimizeFor);
+        String cacheKey = routeResultCache.key(fromLat, fromLng, toLat, toLng, deviation, strategy,
+                algorithm != null ? algorithm.name() : null);
+        RouteResponse cached = routeResultCache.get(cacheKey);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
         }
         
-        return result;
+        CompletableFuture<RouteResponse> computed;
+        try {
+            computed = computeRoute(fromLat, fromLng, toLat, toLng, deviation, strategy, algorithm, snapshot);
+        } catch (RejectedExecutionException e) {
+            // Пул построения маршрутов переполнен - отказ (контроллер отвечает 503), а не очередь
+            return CompletableFuture.failedFuture(e);
+        }
+        return computed
+                .thenApply(response -> {
+                    // Ошибки и запасные маршруты (стратегия не уложилась в бюджет) не кэшируются
+                    if (response.getSuccess() && !Boolean.TRUE.equals(response.getFallback())) {
+                        routeResultCache.put(cacheKey, response, deviation, generation);
+                    }
+                    return response;
+                });
     }
     
-    /**
-     * Оптимизировать маршрут для максимального покрытия
-     */
-    private List<RouteResponse.Coordinate> optimizeRoute(List<double[]> baseRoute, 
-                                                         List<WifiPoint> wifiPoints,
-                                                         int maxDeviation) {
-        List<RouteResponse.Coordinate> optimized = new ArrayList<>();
+    private CompletableFuture<RouteResponse> computeRoute(double fromLat, double fromLng,
+                                                          double toLat, double toLng,
+                                                          int maxDeviation,
+                                                          String strategy,
+                                                          SearchAlgorithm algorithm,
+                                                          WifiPointSnapshot snapshot) {
+        // 1. Получить базовый маршрут
+        CompletableFuture<List<double[]>> baseRoute = CompletableFuture.supplyAsync(
+                () -> yandexRouteService.getBaseRoute(fromLat, fromLng, toLat, toLng), executor);
         
-        for (int i = 0; i < baseRoute.size(); i++) {
-            double[] point = baseRoute.get(i);
-            optimized.add(new RouteResponse.Coordinate(point[0], point[1]));
-            
-            // Если не последняя точка, проверяем покрытие сегмента
-            if (i < baseRoute.size() - 1) {
-                double[] nextPoint = baseRoute.get(i + 1);
-                
-                // Проверяем, покрыт ли сегмент Wi-Fi
-                boolean isCovered = isSegmentCovered(point[0], point[1], 
-                                                     nextPoint[0], nextPoint[1], 
-                                                     wifiPoints);
-                
-                // Если не покрыт, ищем ближайшую точку Wi-Fi
-                if (!isCovered) {
-                    WifiPoint nearest = findNearestWifiPoint(
-                            (point[0] + nextPoint[0]) / 2,
-                            (point[1] + nextPoint[1]) / 2,
-                            wifiPoints, maxDeviation);
-                    
-                    if (nearest != null) {
-                        optimized.add(new RouteResponse.Coordinate(
-                                nearest.getLatitude(), nearest.getLongitude()));
-                    }
-                }
-            }
-        }
+        // 2. Построить маршрут выбранной стратегией (в пуле стратегий, без ожидания в потоке конвейера)
+        CompletableFuture<RouteStrategyResult> strategyResult = baseRoute.thenCompose(route -> {
+            RouteContext context = new RouteContext(fromLat, fromLng, toLat, toLng, route,
+                    maxDeviation, algorithm, snapshot);
+            return routeStrategyService.execute(strategy, context);
+        });
         
-        return optimized;
+        // 3-5. Точки вдоль итогового маршрута, зоны покрытия и статистика
+        // (в своём исполнителе: после таймаута стратегии future завершает общий поток-планировщик)
+        return strategyResult.thenApplyAsync(result -> buildResponse(result, snapshot), executor)
+                .exceptionally(e -> {
+                    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    if (cause instanceof RejectedExecutionException) {
+                        throw new CompletionException(cause);
+                    }
+                    System.err.println("Ошибка построения маршрута: " + cause.getMessage());
+                    cause.printStackTrace();
+                    RouteResponse response = new RouteResponse();
+                    response.setSuccess(false);
+                    return response;
+                });
     }
     
-    /**
-     * Проверить, покрыт ли сегмент маршрута Wi-Fi
-     */
-    private boolean isSegmentCovered(double lat1, double lng1, double lat2, double lng2,
-                                    List<WifiPoint> wifiPoints) {
-        // Упрощённая проверка: есть ли точка Wi-Fi, которая покрывает середину сегмента
-        double midLat = (lat1 + lat2) / 2;
-        double midLng = (lng1 + lng2) / 2;
+    private RouteResponse buildResponse(RouteStrategyResult result, WifiPointSnapshot snapshot) {
+        List<RouteResponse.Coordinate> optimizedRoute = result.getRoute();
+        List<double[]> routePoints = toPoints(optimizedRoute);
         
-        for (WifiPoint point : wifiPoints) {
-            if (GeometryUtil.isPointInRadius(point.getLatitude(), point.getLongitude(),
-                    midLat, midLng, COVERAGE_RADIUS)) {
-                return true;
-            }
-        }
+        // 3. Найти точки Wi-Fi вдоль итогового маршрута и построить по ним индекс
+        // (коридор не уже наибольшего радиуса покрытия: иначе потерялись бы широкие зоны с центром в стороне)
+        double searchRadius = Math.max(SEARCH_RADIUS, snapshot.getMaxCoverageRadius());
+        List<WifiPoint> wifiPoints = findWifiPointsNearRoute(snapshot, routePoints, searchRadius);
+        WifiPointIndex wifiIndex = new WifiPointIndex(wifiPoints, INDEX_CELL_SIZE, COVERAGE_RADIUS);
         
-        return false;
+        // 4. Найти зоны покрытия
+        List<RouteResponse.CoverageZone> coverageZones = findCoverageZones(
+                optimizedRoute, wifiIndex);
+        
+        // 5. Вычислить статистику
+        RouteResponse.RouteStatistics statistics = calculateStatistics(
+                optimizedRoute, coverageZones, wifiIndex);
+        
+        RouteResponse response = new RouteResponse();
+        response.setSuccess(true);
+        response.setRoute(optimizedRoute);
+        response.setCoverageZones(coverageZones);
+        response.setStatistics(statistics);
+        response.setStrategy(result.getStrategy());
+        response.setEngine(result.getEngine());
+        response.setFallback(result.isFallback());
+        response.setComputeTimeMs(result.getElapsedMs());
+        return response;
     }
     
     /**
-     * Найти ближайшую точку Wi-Fi
+     * Найти точки Wi-Fi в радиусе от маршрута
+     * Поиск идёт по снимку точек в памяти, БД не используется
      */
-    private WifiPoint findNearestWifiPoint(double lat, double lng, 
-                                          List<WifiPoint> wifiPoints, 
-                                          int maxDistance) {
-        WifiPoint nearest = null;
-        double minDistance = Double.MAX_VALUE;
-        
-        for (WifiPoint point : wifiPoints) {
-            double distance = GeometryUtil.calculateDistance(
-                    lat, lng, point.getLatitude(), point.getLongitude());
-            
-            if (distance < minDistance && distance <= maxDistance) {
-                minDistance = distance;
-                nearest = point;
-            }
+    private List<WifiPoint> findWifiPointsNearRoute(WifiPointSnapshot snapshot, List<double[]> route,
+                                                    double searchRadius) {
+        return snapshot.findInCorridor(route, searchRadius);
+    }
+    
+    private List<double[]> toPoints(List<RouteResponse.Coordinate> route) {
+        List<double[]> points = new ArrayList<>(route.size());
+        for (RouteResponse.Coordinate coord : route) {
+            points.add(new double[]{coord.getLat(), coord.getLng()});
         }
-        
-        return nearest;
+        return points;
     }
     
     /**
-     * Найти зоны покрытия вдоль маршрута
+     * Найти зоны покрытия вдоль маршрута: точки, в радиус покрытия которых попадает вершина маршрута
+     * Радиус у каждой точки свой (как в статистике покрытия), по умолчанию COVERAGE_RADIUS
      */
     private List<RouteResponse.CoverageZone> findCoverageZones(
-            List<RouteResponse.Coordinate> route, List<WifiPoint> wifiPoints) {
+            List<RouteResponse.Coordinate> route, WifiPointIndex wifiIndex) {
         List<RouteResponse.CoverageZone> zones = new ArrayList<>();
         Set<Integer> addedIds = new HashSet<>();
+        List<Integer> nearby = new ArrayList<>();
         
         for (RouteResponse.Coordinate coord : route) {
-            for (WifiPoint point : wifiPoints) {
+            // Точки рядом с координатой берём из индекса, порядок - как в исходном списке
+            nearby.clear();
+            double lat = coord.getLat();
+            double lng = coord.getLng();
+            wifiIndex.forEachWithin(lat, lng, wifiIndex.getMaxCoverageRadius(), i -> {
+                if (GeometryUtil.calculateDistance(lat, lng, wifiIndex.getLat(i), wifiIndex.getLng(i))
+                        <= wifiIndex.getCoverageRadius(i)) {
+                    nearby.add(i);
+                }
+            });
+            Collections.sort(nearby);
+            
+            for (int i : nearby) {
+                WifiPoint point = wifiIndex.get(i);
                 if (!addedIds.contains(point.getId())) {
-                    double distance = GeometryUtil.calculateDistance(
-                            coord.getLat(), coord.getLng(),
-                            point.getLatitude(), point.getLongitude());
-                    
-                    if (distance <= COVERAGE_RADIUS) {
-                        RouteResponse.CoverageZone zone = new RouteResponse.CoverageZone();
-                        zone.setWifiPointId(point.getId());
-                        zone.setLat(point.getLatitude());
-                        zone.setLng(point.getLongitude());
-                        zone.setRadius(COVERAGE_RADIUS);
-                        zones.add(zone);
-                        addedIds.add(point.getId());
-                    }
+                    RouteResponse.CoverageZone zone = new RouteResponse.CoverageZone();
+                    zone.setWifiPointId(point.getId());
+                    zone.setLat(point.getLatitude());
+                    zone.setLng(point.getLongitude());
+                    zone.setRadius((int) Math.round(wifiIndex.getCoverageRadius(i)));
+                    zones.add(zone);
+                    addedIds.add(point.getId());
                 }
             }
         }
@@ -208,7 +248,7 @@ public class RouteOptimizationService {
     private RouteResponse.RouteStatistics calculateStatistics(
             List<RouteResponse.Coordinate> route,
             List<RouteResponse.CoverageZone> coverageZones,
-            List<WifiPoint> wifiPoints) {
+            WifiPointIndex wifiIndex) {
         
         RouteResponse.RouteStatistics stats = new RouteResponse.RouteStatistics();
         
@@ -226,11 +266,9 @@ public class RouteOptimizationService {
             
             totalDistance += segmentDistance;
             
-            // Проверяем покрытие сегмента
-            if (isSegmentCovered(start.getLat(), start.getLng(),
-                    end.getLat(), end.getLng(), wifiPoints)) {
-                coveredDistance += segmentDistance;
-            }
+            // Покрытая часть сегмента: пересечение с кругами покрытия всех точек
+            coveredDistance += segmentDistance * SegmentCoverage.coveredFraction(
+                    start.getLat(), start.getLng(), end.getLat(), end.getLng(), wifiIndex);
         }
         
         stats.setTotalDistanceMeters((int) Math.round(totalDistance));
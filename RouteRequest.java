@@ -7,6 +7,7 @@ public class RouteRequest {
     private Double toLng;
     private String optimizeFor; // "coverage", "distance", "balanced"
     private Integer maxDeviation; // максимальное отклонение в метрах
+    private String algorithm; // алгоритм поиска по графу для "coverage": dijkstra, astar, bidirectional, ch
 
     public RouteRequest() {}
 
@@ -58,4 +59,12 @@ public class RouteRequest {
     public void setMaxDeviation(Integer maxDeviation) {
         this.maxDeviation = maxDeviation;
     }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    public void setAlgorithm(String algorithm) {
+        this.algorithm = algorithm;
+    }
 }
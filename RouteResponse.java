@@ -7,6 +7,10 @@ public class RouteResponse {
     private List<Coordinate> route;
     private List<CoverageZone> coverageZones;
     private RouteStatistics statistics;
+    private String strategy;       // запрошенная стратегия (optimize_for)
+    private String engine;         // движок, который построил маршрут
+    private Boolean fallback;      // маршрут построен запасной стратегией
+    private Long computeTimeMs;    // время работы стратегии
 
     public RouteResponse() {}
 
@@ -43,6 +47,38 @@ public class RouteResponse {
         this.statistics = statistics;
     }
 
+    public String getStrategy() {
+        return strategy;
+    }
+
+    public void setStrategy(String strategy) {
+        this.strategy = strategy;
+    }
+
+    public String getEngine() {
+        return engine;
+    }
+
+    public void setEngine(String engine) {
+        this.engine = engine;
+    }
+
+    public Boolean getFallback() {
+        return fallback;
+    }
+
+    public void setFallback(Boolean fallback) {
+        this.fallback = fallback;
+    }
+
+    public Long getComputeTimeMs() {
+        return computeTimeMs;
+    }
+
+    public void setComputeTimeMs(Long computeTimeMs) {
+        this.computeTimeMs = computeTimeMs;
+    }
+
     // Вложенные классы
     public static class Coordinate {
         private Double lat;
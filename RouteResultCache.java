@@ -0,0 +1,183 @@
+package ru.moscow.wifi.cache;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import ru.moscow.wifi.dto.RouteResponse;
+import ru.moscow.wifi.model.WifiPoint;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Кэш готовых маршрутов перед RouteOptimizationService
+ *
+ * Ключ - точки A и B, привязанные к сетке (по умолчанию 25 м), плюс параметры запроса,
+ * поэтому повторные запросы между одними и теми же станциями метро попадают в кэш.
+ * Размер ограничен (вытесняется давно не использованный маршрут), у записей есть срок жизни,
+ * после импорта точек удаляются только маршруты, рядом с которыми появились, изменились или исчезли точки
+ * (при полной перезагрузке из БД кэш очищается целиком)
+ */
+@Component
+public class RouteResultCache {
+    private static final double METERS_PER_DEGREE = 111320; // длина одного градуса широты в метрах
+    
+    @Value("${wifi.route.cache.enabled:true}")
+    private boolean enabled;
+    
+    @Value("${wifi.route.cache.grid-meters:25}")
+    private double gridMeters;
+    
+    @Value("${wifi.route.cache.max-size:10000}")
+    private int maxSize;
+    
+    @Value("${wifi.route.cache.ttl-seconds:600}")
+    private long ttlSeconds;
+    
+    // Минимальная ширина коридора вокруг маршрута, в котором изменение точки делает его устаревшим:
+    // радиус поиска точек вдоль маршрута плюс сдвиг центра при объединении близких точек
+    @Value("${wifi.route.cache.invalidation-radius:250}")
+    private double invalidationRadius;
+    
+    private TtlLruCache<String, CachedRoute> entries;
+    
+    // Номер поколения растёт при каждой очистке, результаты старого поколения не сохраняются
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+    private final AtomicLong invalidatedRoutes = new AtomicLong();
+    
+    @PostConstruct
+    public void init() {
+        entries = new TtlLruCache<>(maxSize, ttlSeconds * 1000);
+    }
+    
+    /**
+     * Ключ запроса: A и B на сетке gridMeters, max_deviation, стратегия и алгоритм
+     * Передаются действующие значения (с подставленными значениями по умолчанию), а не поля запроса
+     */
+    public String key(double fromLat, double fromLng, double toLat, double toLng,
+                      int maxDeviation, String strategy, String algorithm) {
+        return snap(fromLat, fromLng) + ";" + snap(toLat, toLng)
+                + ";" + maxDeviation
+                + ";" + strategy.toLowerCase()
+                + ";" + (algorithm != null ? algorithm.toLowerCase() : "");
+    }
+    
+    private String snap(double lat, double lng) {
+        double stepLat = gridMeters / METERS_PER_DEGREE;
+        long row = Math.round(lat / stepLat);
+        // Шаг по долготе считается от широты ячейки, чтобы соседние точки попадали в одну ячейку
+        double stepLng = gridMeters / (METERS_PER_DEGREE * Math.max(Math.cos(Math.toRadians(row * stepLat)), 0.01));
+        long col = Math.round(lng / stepLng);
+        return row + ":" + col;
+    }
+    
+    /**
+     * Текущее поколение кэша (передаётся в put вместе с результатом)
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+    
+    /**
+     * Получить маршрут из кэша или null
+     */
+    public RouteResponse get(String key) {
+        CachedRoute cached = enabled ? entries.get(key) : null;
+        return cached != null ? cached.response : null;
+    }
+    
+    /**
+     * Сохранить маршрут
+     *
+     * @param maxDeviation действующее отклонение, с которым построен маршрут (ширина коридора для очистки)
+     * @param generation поколение, полученное до начала построения маршрута;
+     *                   если за это время кэш очищен, маршрут построен по старым точкам и не сохраняется
+     */
+    public void put(String key, RouteResponse response, int maxDeviation, long generation) {
+        if (!enabled) {
+            return;
+        }
+        
+        List<double[]> route = new ArrayList<>();
+        if (response.getRoute() != null) {
+            for (RouteResponse.Coordinate coordinate : response.getRoute()) {
+                route.add(new double[]{coordinate.getLat(), coordinate.getLng()});
+            }
+        }
+        CachedRoute cached = new CachedRoute(response, route, Math.max(maxDeviation, invalidationRadius));
+        
+        synchronized (this) {
+            if (generation != this.generation.get()) {
+                return;
+            }
+            entries.put(key, cached);
+        }
+    }
+    
+    /**
+     * Очистить кэш
+     */
+    public void invalidate() {
+        synchronized (this) {
+            generation.incrementAndGet();
+            entries.clear();
+            invalidations.incrementAndGet();
+        }
+    }
+    
+    /**
+     * Набор точек изменился: удалить маршруты, коридор которых задевает новые, изменённые или удалённые точки
+     * Маршруты в процессе построения не сохраняются в любом случае - они могли прочитать старый снимок
+     */
+    @EventListener
+    public void onPointsChanged(WifiPointsChangedEvent event) {
+        List<WifiPoint> affected = event.getAffectedPoints();
+        if (affected == null) {
+            invalidate();
+            return;
+        }
+        
+        long start = System.currentTimeMillis();
+        WifiPointSnapshot changed = new WifiPointSnapshot(affected);
+        // Точка влияет на маршрут, если её зона покрытия доходит до коридора
+        double coverage = changed.getMaxCoverageRadius();
+        int removed;
+        synchronized (this) {
+            generation.incrementAndGet();
+            removed = affected.isEmpty() ? 0 : entries.removeIf((key, cached) ->
+                    cached.route.isEmpty() || !changed.findInCorridor(cached.route, cached.radius + coverage).isEmpty());
+            invalidations.incrementAndGet();
+        }
+        invalidatedRoutes.addAndGet(removed);
+        System.out.println("Кэш маршрутов: удалено " + removed + " маршрутов рядом с " + affected.size()
+                + " изменёнными точками за " + (System.currentTimeMillis() - start) + " мс");
+    }
+    
+    /**
+     * Счётчики кэша
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = entries.getStats();
+        stats.put("enabled", enabled);
+        stats.put("grid_meters", gridMeters);
+        stats.put("invalidations", invalidations.get());
+        stats.put("invalidated_routes", invalidatedRoutes.get());
+        return stats;
+    }
+    
+    private static class CachedRoute {
+        final RouteResponse response;
+        final List<double[]> route; // ломаная маршрута [lat, lng]
+        final double radius; // ширина коридора вокруг маршрута в метрах
+        
+        CachedRoute(RouteResponse response, List<double[]> route, double radius) {
+            this.response = response;
+            this.route = route;
+            this.radius = radius;
+        }
+    }
+}
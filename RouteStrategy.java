@@ -0,0 +1,29 @@
+package ru.moscow.wifi.route;
+
+/**
+ * Стратегия построения маршрута (значение параметра optimize_for)
+ *
+ * Каждая стратегия - отдельный движок со своим бюджетом времени.
+ * Если стратегия не укладывается в бюджет, RouteStrategyService отдаёт результат
+ * запасной стратегии, поэтому дорогие движки не задерживают ответ под нагрузкой
+ */
+public interface RouteStrategy {
+    
+    /**
+     * Название стратегии в параметре optimize_for: "distance", "coverage" или "balanced"
+     */
+    String getName();
+    
+    /**
+     * Бюджет времени на построение маршрута в миллисекундах
+     */
+    long getLatencyBudgetMs();
+    
+    /**
+     * Построить маршрут
+     * Долгие стратегии проверяют context.isExpired() и после срока прекращают работу
+     *
+     * @return маршрут или null, если срок истёк (тогда маршрут строит запасная стратегия)
+     */
+    RouteStrategyResult buildRoute(RouteContext context);
+}
@@ -0,0 +1,63 @@
+package ru.moscow.wifi.route;
+
+import ru.moscow.wifi.dto.RouteResponse;
+
+import java.util.List;
+
+/**
+ * Маршрут, построенный стратегией, и сведения о том, как он получен
+ */
+public class RouteStrategyResult {
+    private final List<RouteResponse.Coordinate> route;
+    private final String engine;
+    private String strategy;
+    private boolean fallback;
+    private long elapsedMs;
+    
+    /**
+     * @param route координаты маршрута
+     * @param engine движок, построивший маршрут (например, "router" или "wifi-graph-ch")
+     */
+    public RouteStrategyResult(List<RouteResponse.Coordinate> route, String engine) {
+        this.route = route;
+        this.engine = engine;
+    }
+    
+    public List<RouteResponse.Coordinate> getRoute() {
+        return route;
+    }
+    
+    public String getEngine() {
+        return engine;
+    }
+    
+    /**
+     * Запрошенная стратегия (при fallback маршрут построен другим движком)
+     */
+    public String getStrategy() {
+        return strategy;
+    }
+    
+    public void setStrategy(String strategy) {
+        this.strategy = strategy;
+    }
+    
+    /**
+     * Маршрут построен запасной стратегией, т.к. основная не уложилась в бюджет или завершилась ошибкой
+     */
+    public boolean isFallback() {
+        return fallback;
+    }
+    
+    public void setFallback(boolean fallback) {
+        this.fallback = fallback;
+    }
+    
+    public long getElapsedMs() {
+        return elapsedMs;
+    }
+    
+    public void setElapsedMs(long elapsedMs) {
+        this.elapsedMs = elapsedMs;
+    }
+}
@@ -0,0 +1,145 @@
+package ru.moscow.wifi.service;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import ru.moscow.wifi.route.DistanceRouteStrategy;
+import ru.moscow.wifi.route.RouteContext;
+import ru.moscow.wifi.route.RouteStrategy;
+import ru.moscow.wifi.route.RouteStrategyResult;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Выбор и запуск стратегии построения маршрута
+ *
+ * Стратегия выполняется в ограниченном пуле потоков, результат ждётся не дольше её бюджета
+ * (без блокировки вызывающего потока). Тот же срок стратегия получает в RouteContext,
+ * чтобы после него освободить поток пула.
+ * Если бюджет исчерпан, стратегия упала или пул переполнен (высокая нагрузка),
+ * маршрут строит запасная стратегия "distance" - базовый маршрут без изменений
+ */
+@Service
+public class RouteStrategyService {
+    
+    @Autowired
+    private List<RouteStrategy> strategyList;
+    
+    @Autowired
+    private DistanceRouteStrategy fallbackStrategy;
+    
+    @Value("${wifi.route.default-strategy:balanced}")
+    private String defaultStrategy;
+    
+    private final ThreadPoolExecutor executor = createExecutor();
+    
+    private final Map<String, RouteStrategy> strategies = new HashMap<>();
+    
+    @PostConstruct
+    public void init() {
+        for (RouteStrategy strategy : strategyList) {
+            strategies.put(strategy.getName(), strategy);
+        }
+    }
+    
+    /**
+     * Проверить, есть ли стратегия с таким названием (пустое название - стратегия по умолчанию)
+     */
+    public boolean hasStrategy(String name) {
+        return name == null || name.isEmpty() || strategies.containsKey(name.toLowerCase());
+    }
+    
+    /**
+     * Построить маршрут стратегией name (значение optimize_for)
+     * Вызывающий поток не блокируется: по истечении бюджета future завершается маршрутом
+     * запасной стратегии, а сама стратегия прекращает работу по сроку из RouteContext
+     */
+    public CompletableFuture<RouteStrategyResult> execute(String name, RouteContext context) {
+        RouteStrategy strategy = resolve(name);
+        long start = System.currentTimeMillis();
+        
+        if (strategy == fallbackStrategy) {
+            RouteStrategyResult result = strategy.buildRoute(context);
+            return CompletableFuture.completedFuture(finish(strategy, result, context, start));
+        }
+        
+        long budget = strategy.getLatencyBudgetMs();
+        RouteContext bounded = context.withDeadline(start + budget);
+        CompletableFuture<RouteStrategyResult> future;
+        try {
+            future = CompletableFuture.supplyAsync(() -> strategy.buildRoute(bounded), executor)
+                    .exceptionally(e -> {
+                        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                        System.err.println("Ошибка стратегии " + strategy.getName() + ": " + cause.getMessage());
+                        cause.printStackTrace();
+                        return null;
+                    });
+        } catch (RejectedExecutionException e) {
+            System.err.println("Очередь стратегий переполнена, стратегия " + strategy.getName()
+                    + " заменена на " + fallbackStrategy.getName());
+            future = CompletableFuture.completedFuture(null);
+        }
+        
+        return future
+                .completeOnTimeout(null, budget, TimeUnit.MILLISECONDS)
+                .thenApply(result -> {
+                    if (result == null && System.currentTimeMillis() - start >= budget) {
+                        System.err.println("Стратегия " + strategy.getName() + " не уложилась в бюджет "
+                                + budget + " мс, используется " + fallbackStrategy.getName());
+                    }
+                    return finish(strategy, result, context, start);
+                });
+    }
+    
+    /**
+     * Подставить запасной маршрут вместо отсутствующего результата и заполнить общие поля
+     */
+    private RouteStrategyResult finish(RouteStrategy strategy, RouteStrategyResult result,
+                                       RouteContext context, long start) {
+        if (result == null) {
+            result = fallbackStrategy.buildRoute(context);
+            result.setFallback(true);
+        }
+        result.setStrategy(strategy.getName());
+        result.setElapsedMs(System.currentTimeMillis() - start);
+        return result;
+    }
+    
+    /**
+     * Название стратегии, которая построит маршрут для значения optimize_for (пустое - стратегия по умолчанию)
+     */
+    public String resolveName(String name) {
+        return resolve(name).getName();
+    }
+    
+    private RouteStrategy resolve(String name) {
+        String key = name == null || name.isEmpty() ? defaultStrategy : name.toLowerCase();
+        RouteStrategy strategy = strategies.get(key);
+        if (strategy == null) {
+            throw new IllegalArgumentException("Неизвестная стратегия маршрута: " + name);
+        }
+        return strategy;
+    }
+    
+    private static ThreadPoolExecutor createExecutor() {
+        int threads = Runtime.getRuntime().availableProcessors();
+        AtomicInteger counter = new AtomicInteger();
+        // Короткая очередь: при перегрузке лучше сразу отдать базовый маршрут, чем ждать в очереди
+        return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(threads * 4), runnable -> {
+            Thread thread = new Thread(runnable, "route-strategy-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
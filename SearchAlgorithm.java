@@ -0,0 +1,30 @@
+package ru.moscow.wifi.graph;
+
+/**
+ * Алгоритм поиска пути в графе Wi-Fi
+ */
+public enum SearchAlgorithm {
+    /** Классический Dijkstra от точки A */
+    DIJKSTRA,
+    /** A* с эвристикой по расстоянию до точки B по поверхности Земли */
+    ASTAR,
+    /** Двунаправленный Dijkstra: одновременно от точки A и от точки B */
+    BIDIRECTIONAL,
+    /** Запрос к иерархии сжатия (ContractionHierarchy), выполняется HierarchyPathFinder */
+    CH;
+    
+    /**
+     * Получить алгоритм по названию (без учёта регистра) или null, если такого алгоритма нет
+     * Для параметров запроса: неизвестное название - ошибка запроса, а не подмена на Dijkstra
+     */
+    public static SearchAlgorithm parse(String value) {
+        if (value != null) {
+            for (SearchAlgorithm algorithm : values()) {
+                if (algorithm.name().equalsIgnoreCase(value.trim())) {
+                    return algorithm;
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,92 @@
+package ru.moscow.wifi.graph;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Состояние одного поиска пути: расстояния, предыдущие узлы и посещённые узлы
+ *
+ * Хранится в массивах по порядковому номеру узла (WifiGraph.getOrdinal), а не в самих узлах,
+ * поэтому один граф могут одновременно обходить несколько запросов.
+ * Вместо очистки массивов перед каждым поиском увеличивается номер поколения:
+ * значения, записанные в прошлых поколениях, считаются пустыми
+ */
+class SearchState {
+    private static final ConcurrentLinkedQueue<SearchState> POOL = new ConcurrentLinkedQueue<>();
+    
+    private double[] distance = new double[0];
+    private int[] previous = new int[0];
+    private int[] stamp = new int[0];        // поколение, в котором записаны distance и previous
+    private int[] settledStamp = new int[0]; // поколение, в котором узел окончательно обработан
+    private int generation = 0;
+    
+    private final NodeHeap queue = new NodeHeap();
+    
+    /**
+     * Взять состояние из пула и подготовить его для графа из size узлов
+     */
+    static SearchState acquire(int size) {
+        SearchState state = POOL.poll();
+        if (state == null) {
+            state = new SearchState();
+        }
+        state.reset(size);
+        return state;
+    }
+    
+    /**
+     * Вернуть состояние в пул после поиска
+     */
+    void release() {
+        POOL.offer(this);
+    }
+    
+    private void reset(int size) {
+        if (distance.length < size) {
+            int capacity = Math.max(size, distance.length + distance.length / 2);
+            distance = new double[capacity];
+            previous = new int[capacity];
+            stamp = new int[capacity];
+            settledStamp = new int[capacity];
+            generation = 0;
+        }
+        
+        generation++;
+        if (generation == Integer.MAX_VALUE) {
+            // Номера поколений закончились, один раз очищаем массивы
+            Arrays.fill(stamp, 0);
+            Arrays.fill(settledStamp, 0);
+            generation = 1;
+        }
+        queue.clear();
+    }
+    
+    double getDistance(int node) {
+        return stamp[node] == generation ? distance[node] : Double.MAX_VALUE;
+    }
+    
+    /**
+     * Предыдущий узел на кратчайшем пути или -1
+     */
+    int getPrevious(int node) {
+        return stamp[node] == generation ? previous[node] : -1;
+    }
+    
+    void update(int node, double newDistance, int previousNode) {
+        distance[node] = newDistance;
+        previous[node] = previousNode;
+        stamp[node] = generation;
+    }
+    
+    boolean isSettled(int node) {
+        return settledStamp[node] == generation;
+    }
+    
+    void settle(int node) {
+        settledStamp[node] = generation;
+    }
+    
+    NodeHeap getQueue() {
+        return queue;
+    }
+}
@@ -0,0 +1,142 @@
+package ru.moscow.wifi.util;
+
+import java.util.Arrays;
+
+/**
+ * Точный расчёт покрытой длины отрезка маршрута
+ *
+ * Каждая точка Wi-Fi - круг со своим радиусом покрытия. Отрезок пересекается с каждым кругом
+ * в локальной плоской проекции, получаются интервалы параметра t от 0 до 1, они объединяются,
+ * и покрытая доля - суммарная длина объединения. Длинные отрезки режутся на куски,
+ * чтобы из индекса брались только круги рядом с куском
+ */
+public class SegmentCoverage {
+    private static final double METERS_PER_DEGREE = 111320; // длина одного градуса широты в метрах
+    private static final double MAX_PIECE_LENGTH = 500;     // длина куска отрезка для запроса к индексу в метрах
+    
+    private SegmentCoverage() {}
+    
+    /**
+     * Доля отрезка (от 0 до 1), лежащая внутри хотя бы одного круга покрытия
+     */
+    public static double coveredFraction(double lat1, double lng1, double lat2, double lng2,
+                                         WifiPointIndex index) {
+        double length = GeometryUtil.calculateDistance(lat1, lng1, lat2, lng2);
+        if (length == 0) {
+            return 0;
+        }
+        
+        int pieces = Math.max(1, (int) Math.ceil(length / MAX_PIECE_LENGTH));
+        Intervals intervals = new Intervals();
+        double covered = 0;
+        for (int piece = 0; piece < pieces; piece++) {
+            covered += coveredFractionOfPiece(
+                    lat1 + (lat2 - lat1) * piece / pieces,
+                    lng1 + (lng2 - lng1) * piece / pieces,
+                    lat1 + (lat2 - lat1) * (piece + 1) / pieces,
+                    lng1 + (lng2 - lng1) * (piece + 1) / pieces,
+                    index, intervals);
+        }
+        return covered / pieces;
+    }
+    
+    private static double coveredFractionOfPiece(double lat1, double lng1, double lat2, double lng2,
+                                                 WifiPointIndex index, Intervals intervals) {
+        // Плоская проекция в метрах с началом в начале куска
+        double metersPerDegreeLng = METERS_PER_DEGREE * Math.cos(Math.toRadians((lat1 + lat2) / 2));
+        double dx = (lng2 - lng1) * metersPerDegreeLng;
+        double dy = (lat2 - lat1) * METERS_PER_DEGREE;
+        double a = dx * dx + dy * dy;
+        if (a == 0) {
+            return 0;
+        }
+        
+        double margin = index.getMaxCoverageRadius();
+        double dLat = margin / METERS_PER_DEGREE;
+        double dLng = margin / metersPerDegreeLng;
+        
+        intervals.clear();
+        index.forEachCandidate(Math.min(lat1, lat2) - dLat, Math.max(lat1, lat2) + dLat,
+                Math.min(lng1, lng2) - dLng, Math.max(lng1, lng2) + dLng, i -> {
+            // |P0 + t * d - C|^2 = r^2, где P0 - начало куска, C - центр круга
+            double fx = (lng1 - index.getLng(i)) * metersPerDegreeLng;
+            double fy = (lat1 - index.getLat(i)) * METERS_PER_DEGREE;
+            double r = index.getCoverageRadius(i);
+            double b = 2 * (fx * dx + fy * dy);
+            double c = fx * fx + fy * fy - r * r;
+            double discriminant = b * b - 4 * a * c;
+            if (discriminant <= 0) {
+                return;
+            }
+            double root = Math.sqrt(discriminant);
+            double from = Math.max(0, (-b - root) / (2 * a));
+            double to = Math.min(1, (-b + root) / (2 * a));
+            if (from < to) {
+                intervals.add(from, to);
+            }
+        });
+        
+        return intervals.unionLength();
+    }
+    
+    /**
+     * Набор интервалов [from, to] на отрезке, переиспользуется между кусками
+     */
+    private static class Intervals {
+        private double[] from = new double[16];
+        private double[] to = new double[16];
+        private int size = 0;
+        
+        void clear() {
+            size = 0;
+        }
+        
+        void add(double start, double end) {
+            if (size == from.length) {
+                from = Arrays.copyOf(from, size * 2);
+                to = Arrays.copyOf(to, size * 2);
+            }
+            from[size] = start;
+            to[size] = end;
+            size++;
+        }
+        
+        /**
+         * Длина объединения интервалов
+         * Сортировка вставками: на кусок отрезка приходятся единицы или десятки кругов
+         */
+        double unionLength() {
+            for (int i = 1; i < size; i++) {
+                double start = from[i];
+                double end = to[i];
+                int j = i - 1;
+                while (j >= 0 && from[j] > start) {
+                    from[j + 1] = from[j];
+                    to[j + 1] = to[j];
+                    j--;
+                }
+                from[j + 1] = start;
+                to[j + 1] = end;
+            }
+            
+            double total = 0;
+            double currentFrom = 0;
+            double currentTo = -1;
+            for (int i = 0; i < size; i++) {
+                if (from[i] > currentTo) {
+                    if (currentTo > currentFrom) {
+                        total += currentTo - currentFrom;
+                    }
+                    currentFrom = from[i];
+                    currentTo = to[i];
+                } else {
+                    currentTo = Math.max(currentTo, to[i]);
+                }
+            }
+            if (currentTo > currentFrom) {
+                total += currentTo - currentFrom;
+            }
+            return total;
+        }
+    }
+}
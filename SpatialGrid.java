@@ -0,0 +1,154 @@
+package ru.moscow.wifi.util;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Равномерная сетка по широте/долготе для быстрого поиска точек рядом с координатой.
+ * Индексы точек отсортированы по ячейкам и хранятся в плоских массивах,
+ * поиск просматривает только ячейки, пересекающиеся с областью запроса
+ */
+public class SpatialGrid {
+    private static final double METERS_PER_DEGREE = 111320; // длина одного градуса широты в метрах
+    
+    private final double cellLat; // размер ячейки в градусах широты
+    private final double cellLng; // размер ячейки в градусах долготы
+    private final long minRow;
+    private final long minCol;
+    private final long cols;
+    private final long[] cellKeys;  // отсортированные ключи непустых ячеек
+    private final int[] cellStart;  // начало ячейки в массиве order (длина cellKeys.length + 1)
+    private final int[] order;      // индексы точек, сгруппированные по ячейкам
+    
+    /**
+     * @param lats широты точек
+     * @param lngs долготы точек
+     * @param cellSizeMeters размер ячейки в метрах (обычно равен радиусу поиска)
+     */
+    public SpatialGrid(double[] lats, double[] lngs, double cellSizeMeters) {
+        int n = lats.length;
+        double referenceLat = 0;
+        for (double lat : lats) {
+            referenceLat = Math.max(referenceLat, Math.abs(lat));
+        }
+        
+        this.cellLat = cellSizeMeters / METERS_PER_DEGREE;
+        this.cellLng = cellSizeMeters / (METERS_PER_DEGREE * Math.max(Math.cos(Math.toRadians(referenceLat)), 0.01));
+        
+        long rowMin = Long.MAX_VALUE, rowMax = Long.MIN_VALUE;
+        long colMin = Long.MAX_VALUE, colMax = Long.MIN_VALUE;
+        for (int i = 0; i < n; i++) {
+            long row = row(lats[i]);
+            long col = col(lngs[i]);
+            rowMin = Math.min(rowMin, row);
+            rowMax = Math.max(rowMax, row);
+            colMin = Math.min(colMin, col);
+            colMax = Math.max(colMax, col);
+        }
+        this.minRow = n > 0 ? rowMin : 0;
+        this.minCol = n > 0 ? colMin : 0;
+        this.cols = n > 0 ? colMax - colMin + 1 : 1;
+        
+        // Упаковываем (ключ ячейки, индекс точки) в одно число и сортируем без упаковки в объекты
+        long[] packed = new long[n];
+        for (int i = 0; i < n; i++) {
+            packed[i] = key(row(lats[i]), col(lngs[i])) * n + i;
+        }
+        Arrays.sort(packed);
+        
+        this.order = new int[n];
+        long[] keys = new long[n];
+        int[] starts = new int[n + 1];
+        int cellCount = 0;
+        for (int i = 0; i < n; i++) {
+            long cellKey = packed[i] / n;
+            order[i] = (int) (packed[i] % n);
+            if (cellCount == 0 || keys[cellCount - 1] != cellKey) {
+                keys[cellCount] = cellKey;
+                starts[cellCount] = i;
+                cellCount++;
+            }
+        }
+        starts[cellCount] = n;
+        
+        this.cellKeys = Arrays.copyOf(keys, cellCount);
+        this.cellStart = Arrays.copyOf(starts, cellCount + 1);
+    }
+    
+    /**
+     * Перебрать точки из ячеек, пересекающихся с квадратом радиуса radiusMeters вокруг координаты.
+     * Точное расстояние вызывающий код проверяет сам
+     */
+    public void forEachCandidate(double lat, double lng, double radiusMeters, IntConsumer action) {
+        double dLat = radiusMeters / METERS_PER_DEGREE;
+        double maxAbsLat = Math.min(Math.abs(lat) + dLat, 89.9);
+        double dLng = radiusMeters / (METERS_PER_DEGREE * Math.cos(Math.toRadians(maxAbsLat)));
+        forEachCandidate(lat - dLat, lat + dLat, lng - dLng, lng + dLng, action);
+    }
+    
+    /**
+     * Перебрать точки из ячеек, пересекающихся с прямоугольником
+     */
+    public void forEachCandidate(double minLat, double maxLat, double minLng, double maxLng,
+                                 IntConsumer action) {
+        if (cellKeys.length == 0) {
+            return;
+        }
+        
+        long rowFrom = Math.max(row(minLat), minRow);
+        long rowTo = Math.min(row(maxLat), minRow + maxRowOffset());
+        long colFrom = Math.max(col(minLng), minCol);
+        long colTo = Math.min(col(maxLng), minCol + cols - 1);
+        
+        for (long row = rowFrom; row <= rowTo; row++) {
+            // Ячейки одной строки идут в cellKeys подряд, поэтому достаточно одного бинарного поиска
+            long firstKey = key(row, colFrom);
+            long lastKey = key(row, colTo);
+            int cell = lowerBound(firstKey);
+            
+            while (cell < cellKeys.length && cellKeys[cell] <= lastKey) {
+                for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+                    action.accept(order[i]);
+                }
+                cell++;
+            }
+        }
+    }
+    
+    /**
+     * Получить количество точек в индексе
+     */
+    public int size() {
+        return order.length;
+    }
+    
+    private long maxRowOffset() {
+        return cellKeys[cellKeys.length - 1] / cols;
+    }
+    
+    private long row(double lat) {
+        return (long) Math.floor(lat / cellLat);
+    }
+    
+    private long col(double lng) {
+        return (long) Math.floor(lng / cellLng);
+    }
+    
+    private long key(long row, long col) {
+        return (row - minRow) * cols + (col - minCol);
+    }
+    
+    private int lowerBound(long key) {
+        int low = 0;
+        int high = cellKeys.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (cellKeys[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
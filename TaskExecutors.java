@@ -0,0 +1,47 @@
+package ru.moscow.wifi.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Исполнители для задач, которые в основном ждут ввода-вывода (маршрутизатор, БД)
+ */
+public class TaskExecutors {
+    
+    private TaskExecutors() {}
+    
+    /**
+     * Виртуальный поток на задачу, если JVM их поддерживает (Java 21+), иначе ограниченный пул
+     * из poolThreads потоков. Переполненный пул отклоняет задачу (RejectedExecutionException),
+     * а не выполняет её в вызывающем потоке: вызывающий поток - поток сервлета, его нельзя занимать
+     * ожиданием ввода-вывода, лучше сразу ответить отказом
+     *
+     * @param name префикс имён потоков пула
+     */
+    public static ExecutorService newIoExecutor(String name, int poolThreads) {
+        try {
+            // Вызов через reflection: проект собирается и под Java 17
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            ExecutorService executor = (ExecutorService) factory.invoke(null);
+            System.out.println("Исполнитель " + name + ": виртуальные потоки");
+            return executor;
+        } catch (ReflectiveOperationException e) {
+            System.out.println("Исполнитель " + name + ": пул из " + poolThreads + " потоков");
+        }
+        
+        AtomicInteger counter = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(poolThreads, poolThreads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(poolThreads * 4), runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
@@ -2,65 +2,95 @@ package ru.moscow.wifi.graph;
 
 import ru.moscow.wifi.model.WifiPoint;
 import ru.moscow.wifi.util.GeometryUtil;
+import ru.moscow.wifi.util.SpatialGrid;
 
 import java.util.*;
 
 /**
  * Граф точек Wi-Fi для построения оптимального маршрута
+ *
+ * Базовый граф содержит только точки Wi-Fi (id 0..n-1) и строится один раз.
+ * Начальная и конечная точки маршрута (id -1 и -2) добавляются для каждого запроса
+ * отдельным слоем через withEndpoints(), базовая структура при этом не меняется
  */
 public class WifiGraph {
     private final Map<Integer, GraphNode> nodes;
     private final Map<Integer, List<GraphEdge>> adjacencyList;
+    private final List<GraphNode> baseNodes; // узлы базового графа, индекс = id
+    private SpatialGrid baseIndex;
+    
+    // Слой запроса: точки A и B и их рёбра к узлам базового графа
+    private final Map<Integer, GraphNode> overlayNodes = new HashMap<>();
+    private final Map<Integer, List<GraphEdge>> overlayEdges = new HashMap<>();
+    private int overlayEdgeCount = 0;
+    
     private static final double MAX_EDGE_DISTANCE = 500; // максимальное расстояние между узлами в метрах
     private static final double COVERAGE_RADIUS = 50; // радиус покрытия Wi-Fi в метрах
+    static final double COVERED_EDGE_FACTOR = 0.9; // множитель веса ребра с покрытием Wi-Fi
+    static final double UNCOVERED_EDGE_FACTOR = 1.5; // множитель веса ребра без покрытия
     
     public WifiGraph() {
         this.nodes = new HashMap<>();
         this.adjacencyList = new HashMap<>();
+        this.baseNodes = new ArrayList<>();
+    }
+    
+    /**
+     * Создать слой запроса поверх базового графа (структуры базового графа общие)
+     */
+    private WifiGraph(WifiGraph base) {
+        this.nodes = base.nodes;
+        this.adjacencyList = base.adjacencyList;
+        this.baseNodes = base.baseNodes;
+        this.baseIndex = base.baseIndex;
     }
     
     /**
      * Добавить узел в граф
      */
-    public void addNode(GraphNode node) {
+    private void addNode(GraphNode node) {
         nodes.put(node.getId(), node);
         adjacencyList.putIfAbsent(node.getId(), new ArrayList<>());
     }
     
     /**
-     * Построить граф из списка точек Wi-Fi
+     * Построить базовый граф из всех точек Wi-Fi
      * Создаёт рёбра между точками, которые находятся в пределах MAX_EDGE_DISTANCE
      */
-    public void buildGraphFromWifiPoints(List<WifiPoint> wifiPoints, 
-                                         double fromLat, double fromLng,
-                                         double toLat, double toLng) {
+    public void buildBaseGraph(List<WifiPoint> wifiPoints) {
         // Очищаем граф
         nodes.clear();
         adjacencyList.clear();
-        
-        // Добавляем начальную точку (A)
-        GraphNode startNode = new GraphNode(-1, fromLat, fromLng);
-        addNode(startNode);
-        
-        // Добавляем конечную точку (B)
-        GraphNode endNode = new GraphNode(-2, toLat, toLng);
-        addNode(endNode);
+        baseNodes.clear();
+        overlayNodes.clear();
+        overlayEdges.clear();
+        overlayEdgeCount = 0;
         
         // Добавляем точки Wi-Fi как узлы
         int nodeId = 0;
         for (WifiPoint point : wifiPoints) {
             GraphNode node = new GraphNode(nodeId++, point);
             addNode(node);
+            baseNodes.add(node);
         }
         
         // Строим рёбра между узлами
-        List<GraphNode> nodeList = new ArrayList<>(nodes.values());
+        // Сравниваем только узлы из соседних ячеек сетки, а не все пары
+        double[] lats = new double[baseNodes.size()];
+        double[] lngs = new double[baseNodes.size()];
+        for (int i = 0; i < baseNodes.size(); i++) {
+            lats[i] = baseNodes.get(i).getLat();
+            lngs[i] = baseNodes.get(i).getLng();
+        }
+        baseIndex = new SpatialGrid(lats, lngs, MAX_EDGE_DISTANCE);
         
-        for (int i = 0; i < nodeList.size(); i++) {
-            GraphNode from = nodeList.get(i);
-            
-            for (int j = i + 1; j < nodeList.size(); j++) {
-                GraphNode to = nodeList.get(j);
+        for (GraphNode from : baseNodes) {
+            baseIndex.forEachCandidate(from.getLat(), from.getLng(), MAX_EDGE_DISTANCE, j -> {
+                // Каждую пару обрабатываем один раз
+                if (j <= from.getId()) {
+                    return;
+                }
+                GraphNode to = baseNodes.get(j);
                 
                 double distance = GeometryUtil.calculateDistance(
                         from.getLat(), from.getLng(),
@@ -73,8 +103,75 @@ public class WifiGraph {
                     
                     addEdge(from, to, weight);
                 }
-            }
+            });
+        }
+    }
+    
+    /**
+     * Получить граф для одного запроса: базовый граф + точки A и B
+     * Базовый граф не изменяется, поэтому его можно использовать повторно
+     */
+    public WifiGraph withEndpoints(double fromLat, double fromLng,
+                                   double toLat, double toLng) {
+        WifiGraph graph = new WifiGraph(this);
+        graph.attachEndpoints(fromLat, fromLng, toLat, toLng);
+        return graph;
+    }
+    
+    /**
+     * Построить граф из списка точек Wi-Fi
+     * Создаёт рёбра между точками, которые находятся в пределах MAX_EDGE_DISTANCE
+     */
+    public void buildGraphFromWifiPoints(List<WifiPoint> wifiPoints,
+                                         double fromLat, double fromLng,
+                                         double toLat, double toLng) {
+        buildBaseGraph(wifiPoints);
+        attachEndpoints(fromLat, fromLng, toLat, toLng);
+    }
+    
+    /**
+     * Добавить точки A и B в слой запроса и связать их с узлами базового графа
+     */
+    private void attachEndpoints(double fromLat, double fromLng, double toLat, double toLng) {
+        overlayNodes.clear();
+        overlayEdges.clear();
+        overlayEdgeCount = 0;
+        
+        // Добавляем начальную точку (A)
+        GraphNode startNode = new GraphNode(-1, fromLat, fromLng);
+        overlayNodes.put(startNode.getId(), startNode);
+        
+        // Добавляем конечную точку (B)
+        GraphNode endNode = new GraphNode(-2, toLat, toLng);
+        overlayNodes.put(endNode.getId(), endNode);
+        
+        linkToBaseGraph(startNode);
+        linkToBaseGraph(endNode);
+        
+        double distance = GeometryUtil.calculateDistance(fromLat, fromLng, toLat, toLng);
+        if (distance <= MAX_EDGE_DISTANCE) {
+            addOverlayEdge(startNode, endNode, calculateEdgeWeight(startNode, endNode, distance));
+        }
+    }
+    
+    /**
+     * Связать узел слоя запроса со всеми узлами базового графа в пределах MAX_EDGE_DISTANCE
+     */
+    private void linkToBaseGraph(GraphNode node) {
+        if (baseIndex == null) {
+            return;
         }
+        
+        baseIndex.forEachCandidate(node.getLat(), node.getLng(), MAX_EDGE_DISTANCE, j -> {
+            GraphNode baseNode = baseNodes.get(j);
+            double distance = GeometryUtil.calculateDistance(
+                    node.getLat(), node.getLng(),
+                    baseNode.getLat(), baseNode.getLng());
+            
+            if (distance <= MAX_EDGE_DISTANCE) {
+                addOverlayEdge(node, baseNode, calculateEdgeWeight(node, baseNode, distance));
+            }
+        });
     }
     
     /**
@@ -90,10 +187,10 @@ public class WifiGraph {
         
         if (!hasCoverage) {
             // Штраф за отсутствие покрытия (увеличиваем вес)
-            weight *= 1.5;
+            weight *= UNCOVERED_EDGE_FACTOR;
         } else {
             // Бонус за наличие покрытия (уменьшаем вес)
-            weight *= 0.9;
+            weight *= COVERED_EDGE_FACTOR;
         }
         
         return weight;
@@ -107,55 +204,98 @@ public class WifiGraph {
         adjacencyList.get(to.getId()).add(new GraphEdge(to, from, weight));
     }
     
+    /**
+     * Добавить ребро в слой запроса (двунаправленное)
+     * Для узлов базового графа список рёбер копируется, общий список не меняется
+     */
+    private void addOverlayEdge(GraphNode from, GraphNode to, double weight) {
+        overlayEdgesOf(from).add(new GraphEdge(from, to, weight));
+        overlayEdgesOf(to).add(new GraphEdge(to, from, weight));
+        overlayEdgeCount++;
+    }
+    
+    private List<GraphEdge> overlayEdgesOf(GraphNode node) {
+        return overlayEdges.computeIfAbsent(node.getId(),
+                id -> new ArrayList<>(adjacencyList.getOrDefault(id, Collections.emptyList())));
+    }
+    
     /**
      * Получить узел по ID
      */
     public GraphNode getNode(int id) {
-        return nodes.get(id);
+        GraphNode node = overlayNodes.get(id);
+        return node != null ? node : nodes.get(id);
     }
     
     /**
      * Получить начальный узел (точка A)
      */
     public GraphNode getStartNode() {
-        return nodes.get(-1);
+        return overlayNodes.get(-1);
     }
     
     /**
      * Получить конечный узел (точка B)
      */
     public GraphNode getEndNode() {
-        return nodes.get(-2);
+        return overlayNodes.get(-2);
     }
     
     /**
      * Получить список рёбер, исходящих из узла
      */
     public List<GraphEdge> getEdges(int nodeId) {
-        return adjacencyList.getOrDefault(nodeId, new ArrayList<>());
+        List<GraphEdge> edges = overlayEdges.get(nodeId);
+        if (edges != null) {
+            return edges;
+        }
+        return adjacencyList.getOrDefault(nodeId, Collections.emptyList());
     }
     
     /**
      * Получить все узлы графа
      */
     public Collection<GraphNode> getAllNodes() {
-        return nodes.values();
+        if (overlayNodes.isEmpty()) {
+            return nodes.values();
+        }
+        List<GraphNode> all = new ArrayList<>(nodes.size() + overlayNodes.size());
+        all.addAll(overlayNodes.values());
+        all.addAll(nodes.values());
+        return all;
     }
     
     /**
-     * Сбросить состояние всех узлов (для повторного использования алгоритма)
+     * Получить порядковый номер узла: 0..n-1 для точек Wi-Fi, n для точки A, n+1 для точки B
+     * Используется алгоритмами поиска для хранения состояния в массивах
      */
-    public void resetNodes() {
-        for (GraphNode node : nodes.values()) {
-            node.reset();
+    public int getOrdinal(GraphNode node) {
+        int id = node.getId();
+        return id >= 0 ? id : baseNodes.size() - id - 1;
+    }
+    
+    /**
+     * Получить узел по порядковому номеру
+     */
+    public GraphNode getNodeByOrdinal(int ordinal) {
+        if (ordinal < baseNodes.size()) {
+            return baseNodes.get(ordinal);
         }
+        return overlayNodes.get(baseNodes.size() - ordinal - 1);
+    }
+    
+    /**
+     * Получить размер диапазона порядковых номеров узлов
+     */
+    public int getOrdinalCount() {
+        return baseNodes.size() + 2;
     }
     
     /**
      * Получить количество узлов
      */
     public int getNodeCount() {
-        return nodes.size();
+        return nodes.size() + overlayNodes.size();
     }
     
     /**
@@ -166,6 +306,6 @@ public class WifiGraph {
         for (List<GraphEdge> edges : adjacencyList.values()) {
             count += edges.size();
         }
-        return count / 2; // делим на 2, т.к. рёбра двунаправленные
+        return count / 2 + overlayEdgeCount; // делим на 2, т.к. рёбра двунаправленные
     }
 }
@@ -0,0 +1,162 @@
+package ru.moscow.wifi.graph;
+
+import ru.moscow.wifi.model.WifiPoint;
+import ru.moscow.wifi.util.GeometryUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Замер времени построения графа в зависимости от количества точек.
+ * Сравнивает построение через сетку с полным перебором пар,
+ * а также память и скорость поиска WifiGraph и CompactWifiGraph.
+ *
+ * Запуск: java ru.moscow.wifi.graph.WifiGraphBenchmark [размеры...]
+ */
+public class WifiGraphBenchmark {
+    // Границы Москвы в пределах МКАД
+    private static final double MIN_LAT = 55.57;
+    private static final double MAX_LAT = 55.91;
+    private static final double MIN_LNG = 37.37;
+    private static final double MAX_LNG = 37.84;
+    private static final double MAX_EDGE_DISTANCE = 500;
+    private static final int BRUTE_FORCE_LIMIT = 20000; // дальше перебор пар занимает минуты
+    
+    public static void main(String[] args) {
+        int[] sizes = {1000, 2000, 5000, 10000, 20000, 50000, 100000};
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+        
+        // Прогрев JIT
+        buildWithGrid(generatePoints(5000, 1));
+        countEdgesBruteForce(generatePoints(2000, 1));
+        
+        System.out.printf("%10s %10s %12s %14s%n", "points", "edges", "grid, ms", "pairwise, ms");
+        for (int size : sizes) {
+            List<WifiPoint> points = generatePoints(size, 42);
+            
+            long start = System.nanoTime();
+            WifiGraph graph = buildWithGrid(points);
+            double gridMs = (System.nanoTime() - start) / 1e6;
+            
+            String pairwise = "-";
+            if (size <= BRUTE_FORCE_LIMIT) {
+                start = System.nanoTime();
+                int edges = countEdgesBruteForce(points);
+                pairwise = String.format("%.1f", (System.nanoTime() - start) / 1e6);
+                
+                if (edges != graph.getEdgeCount()) {
+                    throw new IllegalStateException("Количество рёбер не совпадает: "
+                            + edges + " != " + graph.getEdgeCount());
+                }
+            }
+            
+            System.out.printf("%10d %10d %12.1f %14s%n", size, graph.getEdgeCount(), gridMs, pairwise);
+        }
+        
+        System.out.println();
+        System.out.printf("%10s %14s %16s %12s %14s%n",
+                "points", "WifiGraph, MB", "Compact, MB", "search, ms", "compact, ms");
+        for (int size : sizes) {
+            compareLayouts(generatePoints(size, 42));
+        }
+    }
+    
+    /**
+     * Сравнить занимаемую память и время поиска Dijkstra (из угла в угол, худший случай - обход всего графа)
+     * для двух представлений графа
+     */
+    private static void compareLayouts(List<WifiPoint> points) {
+        long before = usedHeap();
+        WifiGraph graph = new WifiGraph();
+        graph.buildBaseGraph(points);
+        long objectBytes = usedHeap() - before;
+        
+        before = usedHeap();
+        CompactWifiGraph compact = new CompactWifiGraph(points);
+        long compactBytes = usedHeap() - before;
+        
+        GraphPathFinder finder = new GraphPathFinder();
+        CompactPathFinder compactFinder = new CompactPathFinder();
+        WifiGraph routeGraph = graph.withEndpoints(MIN_LAT, MIN_LNG, MAX_LAT, MAX_LNG);
+        CompactWifiGraph.Query query = compact.withEndpoints(MIN_LAT, MIN_LNG, MAX_LAT, MAX_LNG);
+        
+        // Прогрев и замер
+        finder.findPath(routeGraph, 1.0, SearchAlgorithm.DIJKSTRA);
+        compactFinder.findPath(query, 1.0, SearchAlgorithm.DIJKSTRA);
+        long start = System.nanoTime();
+        finder.findPath(routeGraph, 1.0, SearchAlgorithm.DIJKSTRA);
+        double searchMs = (System.nanoTime() - start) / 1e6;
+        start = System.nanoTime();
+        compactFinder.findPath(query, 1.0, SearchAlgorithm.DIJKSTRA);
+        double compactMs = (System.nanoTime() - start) / 1e6;
+        
+        System.out.printf("%10d %14.1f %16.1f %12.1f %14.1f%n", points.size(),
+                objectBytes / 1048576.0, compactBytes / 1048576.0, searchMs, compactMs);
+        
+        // Графы должны оставаться живыми до замера памяти
+        if (graph.getNodeCount() != compact.getNodeCount()) {
+            throw new IllegalStateException("Количество узлов не совпадает");
+        }
+    }
+    
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+    
+    private static WifiGraph buildWithGrid(List<WifiPoint> points) {
+        WifiGraph graph = new WifiGraph();
+        graph.buildGraphFromWifiPoints(points, MIN_LAT, MIN_LNG, MAX_LAT, MAX_LNG);
+        return graph;
+    }
+    
+    /**
+     * Прежний способ: проверка расстояния для каждой пары узлов
+     */
+    private static int countEdgesBruteForce(List<WifiPoint> points) {
+        List<double[]> coords = new ArrayList<>();
+        coords.add(new double[]{MIN_LAT, MIN_LNG});
+        coords.add(new double[]{MAX_LAT, MAX_LNG});
+        for (WifiPoint point : points) {
+            coords.add(new double[]{point.getLatitude(), point.getLongitude()});
+        }
+        
+        int edges = 0;
+        for (int i = 0; i < coords.size(); i++) {
+            for (int j = i + 1; j < coords.size(); j++) {
+                double distance = GeometryUtil.calculateDistance(
+                        coords.get(i)[0], coords.get(i)[1],
+                        coords.get(j)[0], coords.get(j)[1]);
+                if (distance <= MAX_EDGE_DISTANCE) {
+                    edges++;
+                }
+            }
+        }
+        return edges;
+    }
+    
+    private static List<WifiPoint> generatePoints(int count, long seed) {
+        Random random = new Random(seed);
+        List<WifiPoint> points = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            WifiPoint point = new WifiPoint();
+            point.setId(i + 1);
+            point.setName("Точка " + i);
+            point.setType("city_wifi");
+            point.setLatitude(MIN_LAT + random.nextDouble() * (MAX_LAT - MIN_LAT));
+            point.setLongitude(MIN_LNG + random.nextDouble() * (MAX_LNG - MIN_LNG));
+            point.setCoverageRadius(50);
+            points.add(point);
+        }
+        return points;
+    }
+}
@@ -0,0 +1,269 @@
+package ru.moscow.wifi.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import ru.moscow.wifi.cache.WifiPointsChangedEvent;
+import ru.moscow.wifi.graph.CompactPathFinder;
+import ru.moscow.wifi.graph.CompactWifiGraph;
+import ru.moscow.wifi.graph.ContractionHierarchy;
+import ru.moscow.wifi.graph.HierarchyPathFinder;
+import ru.moscow.wifi.graph.MatrixPathFinder;
+import ru.moscow.wifi.graph.PathResult;
+import ru.moscow.wifi.graph.SearchAlgorithm;
+import ru.moscow.wifi.graph.WifiGraph;
+import ru.moscow.wifi.model.WifiPoint;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Сервис, который хранит общий граф всех точек Wi-Fi
+ * Граф строится по снимку точек (WifiPointSnapshotService) при старте и после каждого импорта,
+ * запросы маршрутов получают лёгкий слой с точками A и B поверх него.
+ * Рёбра компактного графа сохраняются в файл и при старте читаются из него, если точки те же.
+ * Объектный граф WifiGraph поиском маршрутов не используется и строится при первом обращении
+ */
+@Service
+public class WifiGraphService {
+    
+    @Value("${wifi.graph.ch.enabled:true}")
+    private boolean hierarchyEnabled;
+    
+    @Value("${wifi.graph.ch.file:data/graph/wifi-graph.ch}")
+    private String hierarchyFile;
+    
+    // Файл с рёбрами компактного графа, пустое значение - строить граф при каждом старте
+    @Value("${wifi.graph.file:data/graph/wifi-graph.csr}")
+    private String graphFile;
+    
+    private volatile Graphs graphs = new Graphs(Collections.emptyList(), null, null);
+    
+    private final CompactPathFinder compactPathFinder = new CompactPathFinder();
+    private final HierarchyPathFinder hierarchyPathFinder = new HierarchyPathFinder();
+    private final MatrixPathFinder matrixPathFinder = new MatrixPathFinder();
+    
+    // Сжатие графа занимает секунды, поэтому выполняется в фоне и не задерживает старт
+    private final ExecutorService hierarchyExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "wifi-graph-ch");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    /**
+     * Перестроить граф после загрузки нового снимка точек
+     * Граф и иерархия строятся заново по всему снимку для маршрутов, набор изменений не используется
+     */
+    @EventListener
+    public void onPointsChanged(WifiPointsChangedEvent event) {
+        rebuild(event.getRoutingSnapshot().getPoints());
+    }
+    
+    /**
+     * Перестроить граф по списку точек
+     * Новый граф подменяет старый целиком, запросы в процессе работают со старым
+     */
+    public synchronized void rebuild(List<WifiPoint> points) {
+        try {
+            long start = System.currentTimeMillis();
+            
+            CompactWifiGraph loadedGraph = loadGraph(points);
+            boolean loaded = loadedGraph != null;
+            CompactWifiGraph compactGraph = loaded ? loadedGraph : new CompactWifiGraph(points);
+            graphs = new Graphs(points, compactGraph, null);
+            
+            System.out.println("Граф Wi-Fi " + (loaded ? "загружен из " + graphFile : "построен") + ": "
+                    + compactGraph.getNodeCount() + " узлов, " + compactGraph.getEdgeCount() + " рёбер за "
+                    + (System.currentTimeMillis() - start) + " мс");
+            if (!loaded) {
+                saveGraph(compactGraph);
+            }
+            
+            if (hierarchyEnabled) {
+                hierarchyExecutor.submit(() -> prepareHierarchy(compactGraph));
+            }
+        } catch (Exception e) {
+            System.err.println("Ошибка построения графа Wi-Fi: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+    
+    /**
+     * Загрузить компактный граф из файла (null - файла нет или он построен для других точек)
+     */
+    private CompactWifiGraph loadGraph(List<WifiPoint> points) {
+        if (graphFile.isEmpty()) {
+            return null;
+        }
+        try {
+            return CompactWifiGraph.load(Path.of(graphFile), points);
+        } catch (Exception e) {
+            System.err.println("Ошибка чтения файла графа Wi-Fi: " + e.getMessage());
+            return null;
+        }
+    }
+    
+    private void saveGraph(CompactWifiGraph compactGraph) {
+        if (graphFile.isEmpty()) {
+            return;
+        }
+        try {
+            compactGraph.save(Path.of(graphFile));
+        } catch (Exception e) {
+            System.err.println("Ошибка записи файла графа Wi-Fi: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Загрузить иерархию сжатия с диска или построить её заново и сохранить
+     */
+    private void prepareHierarchy(CompactWifiGraph compactGraph) {
+        try {
+            long start = System.currentTimeMillis();
+            Path file = Path.of(hierarchyFile);
+            
+            ContractionHierarchy hierarchy = ContractionHierarchy.load(file, compactGraph);
+            if (hierarchy != null) {
+                System.out.println("Иерархия сжатия загружена из " + file + " за "
+                        + (System.currentTimeMillis() - start) + " мс");
+            } else {
+                hierarchy = ContractionHierarchy.build(compactGraph);
+                System.out.println("Иерархия сжатия построена: " + hierarchy.getShortcutCount()
+                        + " сокращений за " + (System.currentTimeMillis() - start) + " мс");
+                hierarchy.save(file);
+            }
+            
+            // Граф мог быть перестроен, пока строилась иерархия
+            synchronized (this) {
+                if (graphs.compactGraph == compactGraph) {
+                    graphs = graphs.withHierarchy(hierarchy);
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("Ошибка построения иерархии сжатия: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+    
+    /**
+     * Найти путь от A до B по текущему графу
+     * Компактный граф и иерархия берутся из одного набора, поэтому перестроение графа
+     * во время поиска на результат не влияет. Если иерархия ещё не готова, запрос CH выполняется через A*
+     *
+     * @param wifiPriority приоритет точек Wi-Fi (1.0 = без приоритета, < 1.0 = приоритет выше)
+     * @param algorithm алгоритм поиска
+     * @return путь и алгоритм, которым он фактически найден (путь null, если не найден)
+     */
+    public PathResult findPath(double fromLat, double fromLng, double toLat, double toLng,
+                               double wifiPriority, SearchAlgorithm algorithm) {
+        return findPath(fromLat, fromLng, toLat, toLng, wifiPriority, algorithm, Long.MAX_VALUE);
+    }
+    
+    /**
+     * Найти путь от A до B, прекратив поиск после deadline (путь null, если срок вышел)
+     *
+     * @param deadline время System.currentTimeMillis(), Long.MAX_VALUE - без ограничения
+     */
+    public PathResult findPath(double fromLat, double fromLng, double toLat, double toLng,
+                               double wifiPriority, SearchAlgorithm algorithm, long deadline) {
+        Graphs current = graphs;
+        if (current.compactGraph == null) {
+            return new PathResult(null, algorithm, 0);
+        }
+        
+        CompactWifiGraph.Query query = current.compactGraph.withEndpoints(fromLat, fromLng, toLat, toLng);
+        if (algorithm == SearchAlgorithm.CH) {
+            if (current.hierarchy != null) {
+                return hierarchyPathFinder.findPath(current.hierarchy, query, wifiPriority, deadline);
+            }
+            algorithm = SearchAlgorithm.ASTAR;
+        }
+        return compactPathFinder.findPath(query, wifiPriority, algorithm, deadline);
+    }
+    
+    /**
+     * Матрица стоимостей путей от каждой начальной точки до каждой конечной по текущему графу
+     *
+     * @return матрица по строкам (см. MatrixPathFinder) или null, если граф ещё не построен
+     */
+    public float[] computeMatrix(List<double[]> sources, List<double[]> targets, double wifiPriority) {
+        CompactWifiGraph compactGraph = graphs.compactGraph;
+        if (compactGraph == null) {
+            return null;
+        }
+        return matrixPathFinder.computeMatrix(compactGraph, sources, targets, wifiPriority);
+    }
+    
+    /**
+     * Получить граф для маршрута от A до B
+     */
+    public WifiGraph getGraphForRoute(double fromLat, double fromLng, double toLat, double toLng) {
+        return graphs.getGraph().withEndpoints(fromLat, fromLng, toLat, toLng);
+    }
+    
+    /**
+     * Получить общий граф без точек A и B
+     */
+    public WifiGraph getBaseGraph() {
+        return graphs.getGraph();
+    }
+    
+    /**
+     * Получить компактный граф (null, если граф ещё не построен)
+     */
+    public CompactWifiGraph getCompactGraph() {
+        return graphs.compactGraph;
+    }
+    
+    /**
+     * Получить иерархию сжатия для текущего компактного графа (null, пока она не готова)
+     */
+    public ContractionHierarchy getHierarchy() {
+        return graphs.hierarchy;
+    }
+    
+    /**
+     * Согласованный набор структур, построенных по одним и тем же точкам
+     */
+    private static class Graphs {
+        final List<WifiPoint> points;
+        final CompactWifiGraph compactGraph;
+        final ContractionHierarchy hierarchy;
+        private final AtomicReference<WifiGraph> graph; // общий для копий набора, строится при первом обращении
+        
+        Graphs(List<WifiPoint> points, CompactWifiGraph compactGraph, ContractionHierarchy hierarchy) {
+            this(points, compactGraph, hierarchy, new AtomicReference<>());
+        }
+        
+        private Graphs(List<WifiPoint> points, CompactWifiGraph compactGraph, ContractionHierarchy hierarchy,
+                       AtomicReference<WifiGraph> graph) {
+            this.points = points;
+            this.compactGraph = compactGraph;
+            this.hierarchy = hierarchy;
+            this.graph = graph;
+        }
+        
+        Graphs withHierarchy(ContractionHierarchy hierarchy) {
+            return new Graphs(points, compactGraph, hierarchy, graph);
+        }
+        
+        WifiGraph getGraph() {
+            WifiGraph current = graph.get();
+            if (current != null) {
+                return current;
+            }
+            synchronized (graph) {
+                if (graph.get() == null) {
+                    WifiGraph built = new WifiGraph();
+                    built.buildBaseGraph(points);
+                    graph.set(built);
+                }
+                return graph.get();
+            }
+        }
+    }
+}
@@ -16,6 +16,8 @@ public class WifiPoint {
     private String address;
     private Integer coverageRadius;
     private String sourceDataset;
+    private String sourceId; // id строки в датасете или хэш координат и названия
+    private String contentHash; // хэш содержимого: неизменённые строки при импорте не перезаписываются
     
     @Column(name = "created_at", updatable = false, insertable = false)
     private java.sql.Timestamp createdAt;
@@ -87,6 +89,22 @@ public class WifiPoint {
         this.sourceDataset = sourceDataset;
     }
     
+    public String getSourceId() {
+        return sourceId;
+    }
+    
+    public void setSourceId(String sourceId) {
+        this.sourceId = sourceId;
+    }
+    
+    public String getContentHash() {
+        return contentHash;
+    }
+    
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+    
     public java.sql.Timestamp getCreatedAt() {
         return createdAt;
     }
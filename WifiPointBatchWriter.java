@@ -0,0 +1,170 @@
+package ru.moscow.wifi.repository;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.stereotype.Repository;
+import ru.moscow.wifi.model.WifiPoint;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Пакетная запись точек Wi-Fi через JDBC
+ *
+ * saveAll с IDENTITY-ключами выполняет по одному INSERT на точку, поэтому при импорте
+ * точки пишутся одним многострочным INSERT на пакет
+ */
+@Repository
+public class WifiPointBatchWriter {
+    
+    private static final String INSERT_PREFIX = "INSERT INTO wifi_points "
+            + "(name, type, latitude, longitude, address, coverage_radius, source_dataset, source_id, content_hash) VALUES ";
+    private static final String ROW_VALUES = "(?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String UPDATE = "UPDATE wifi_points SET name = ?, type = ?, latitude = ?, longitude = ?, "
+            + "address = ?, coverage_radius = ?, source_dataset = ?, source_id = ?, content_hash = ? WHERE id = ?";
+    
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    
+    /**
+     * Вставить точки одним запросом, выданные БД id записываются в точки
+     * @return количество вставленных строк
+     */
+    public int insert(List<WifiPoint> points) {
+        if (points.isEmpty()) {
+            return 0;
+        }
+        
+        String sql = repeat(INSERT_PREFIX, ROW_VALUES, points.size());
+        KeyHolder keys = new GeneratedKeyHolder();
+        int inserted = jdbcTemplate.update(connection -> {
+            PreparedStatement statement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+            int index = 1;
+            for (WifiPoint point : points) {
+                index = bind(statement, index, point);
+            }
+            return statement;
+        }, keys);
+        
+        // Ключи многострочного INSERT возвращаются в порядке строк
+        List<Map<String, Object>> keyList = keys.getKeyList();
+        for (int i = 0; i < points.size() && i < keyList.size(); i++) {
+            Object id = keyList.get(i).values().iterator().next();
+            points.get(i).setId(((Number) id).intValue());
+        }
+        return inserted;
+    }
+    
+    /**
+     * Обновить точки по id одним пакетом JDBC
+     * @return количество обновлённых строк
+     */
+    public int update(List<WifiPoint> points) {
+        if (points.isEmpty()) {
+            return 0;
+        }
+        
+        int[] counts = jdbcTemplate.batchUpdate(UPDATE, points, points.size(), (statement, point) -> {
+            int index = bind(statement, 1, point);
+            statement.setInt(index, point.getId());
+        })[0];
+        
+        int updated = 0;
+        for (int count : counts) {
+            updated += Math.max(count, 0);
+        }
+        return updated;
+    }
+    
+    /**
+     * Удалить точки по id одним запросом
+     * @return количество удалённых строк
+     */
+    public int delete(List<Integer> ids) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        
+        String sql = repeat("DELETE FROM wifi_points WHERE id IN (", "?", ids.size()) + ")";
+        return jdbcTemplate.update(sql, ids.toArray());
+    }
+    
+    /**
+     * Сохранённые точки датасета: ключ источника -> id и хэш содержимого
+     * Точки без ключа (импортированные до инкрементального режима) получают ключ "#id",
+     * который не совпадёт ни с одной строкой датасета. Так же помечаются повторы ключа
+     * (строки, вставленные режимом append): за ключом остаётся точка с меньшим id,
+     * остальные будут удалены при полной сверке датасета
+     */
+    public Map<String, StoredPoint> findBySourceDataset(String sourceDataset) {
+        Map<String, StoredPoint> result = new HashMap<>();
+        jdbcTemplate.query("SELECT id, source_id, content_hash FROM wifi_points WHERE source_dataset = ? "
+                        + "ORDER BY id",
+                row -> {
+                    int id = row.getInt("id");
+                    String sourceId = row.getString("source_id");
+                    StoredPoint point = new StoredPoint(id, row.getString("content_hash"));
+                    if (sourceId == null || result.putIfAbsent(sourceId, point) != null) {
+                        result.put("#" + id, point);
+                    }
+                }, sourceDataset);
+        return result;
+    }
+    
+    private int bind(PreparedStatement statement, int index, WifiPoint point) throws SQLException {
+        statement.setString(index++, point.getName());
+        statement.setString(index++, point.getType());
+        statement.setDouble(index++, point.getLatitude());
+        statement.setDouble(index++, point.getLongitude());
+        statement.setString(index++, point.getAddress());
+        if (point.getCoverageRadius() != null) {
+            statement.setInt(index++, point.getCoverageRadius());
+        } else {
+            statement.setNull(index++, Types.INTEGER);
+        }
+        statement.setString(index++, point.getSourceDataset());
+        statement.setString(index++, point.getSourceId());
+        statement.setString(index++, point.getContentHash());
+        return index;
+    }
+    
+    private String repeat(String prefix, String item, int count) {
+        StringBuilder sql = new StringBuilder(prefix.length() + count * (item.length() + 2));
+        sql.append(prefix);
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(item);
+        }
+        return sql.toString();
+    }
+    
+    /**
+     * id и хэш содержимого сохранённой точки
+     */
+    public static class StoredPoint {
+        private final int id;
+        private final String contentHash;
+        
+        public StoredPoint(int id, String contentHash) {
+            this.id = id;
+            this.contentHash = contentHash;
+        }
+        
+        public int getId() {
+            return id;
+        }
+        
+        public String getContentHash() {
+            return contentHash;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package ru.moscow.wifi.cache;
+
+import ru.moscow.wifi.model.WifiPoint;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Изменения точек Wi-Fi после инкрементального импорта: добавленные, изменённые и удалённые точки
+ * Снимок точек применяет их без повторного чтения всей таблицы
+ */
+public class WifiPointChangeSet {
+    private final List<WifiPoint> inserted = new ArrayList<>();
+    private final List<WifiPoint> updated = new ArrayList<>();
+    private final List<Integer> deleted = new ArrayList<>();
+    
+    public synchronized void addInserted(List<WifiPoint> points) {
+        inserted.addAll(points);
+    }
+    
+    public synchronized void addUpdated(List<WifiPoint> points) {
+        updated.addAll(points);
+    }
+    
+    public synchronized void addDeleted(List<Integer> ids) {
+        deleted.addAll(ids);
+    }
+    
+    public synchronized void addAll(WifiPointChangeSet other) {
+        inserted.addAll(other.getInserted());
+        updated.addAll(other.getUpdated());
+        deleted.addAll(other.getDeleted());
+    }
+    
+    public synchronized boolean isEmpty() {
+        return inserted.isEmpty() && updated.isEmpty() && deleted.isEmpty();
+    }
+    
+    /**
+     * Новые точки (с id, выданными БД)
+     */
+    public synchronized List<WifiPoint> getInserted() {
+        return new ArrayList<>(inserted);
+    }
+    
+    /**
+     * Изменённые точки, id - как у сохранённых
+     */
+    public synchronized List<WifiPoint> getUpdated() {
+        return new ArrayList<>(updated);
+    }
+    
+    /**
+     * id удалённых точек
+     */
+    public synchronized List<Integer> getDeleted() {
+        return new ArrayList<>(deleted);
+    }
+    
+    @Override
+    public synchronized String toString() {
+        return "+" + inserted.size() + " ~" + updated.size() + " -" + deleted.size();
+    }
+}
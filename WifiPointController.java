@@ -1,14 +1,22 @@
 package ru.moscow.wifi.controller;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import ru.moscow.wifi.dto.WifiPointDTO;
 import ru.moscow.wifi.service.WifiPointService;
+import ru.moscow.wifi.service.WifiTileService;
 
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 @RestController
 @RequestMapping("/api/wifi-points")
@@ -18,27 +26,65 @@ public class WifiPointController {
     @Autowired
     private WifiPointService wifiPointService;
     
+    @Autowired
+    private WifiTileService wifiTileService;
+    
+    // Сколько секунд браузер использует тайл без перепроверки ETag
+    @Value("${wifi.tiles.max-age-seconds:60}")
+    private long tileMaxAgeSeconds;
+    
+    @Value("${wifi.points.page.max-limit:5000}")
+    private int maxPageLimit;
+    
     // Получить все точки Wi-Fi
+    // С параметрами cursor/limit - постранично по возрастанию id: следующая страница
+    // запрашивается с cursor = next_cursor из ответа, next_cursor = null на последней странице
     @GetMapping
     public ResponseEntity<Map<String, Object>> getAllPoints(
             @RequestParam(required = false) String type,
             @RequestParam(required = false) Double lat,
             @RequestParam(required = false) Double lng,
-            @RequestParam(required = false, defaultValue = "500") Integer radius) {
+            @RequestParam(required = false, defaultValue = "500") Integer radius,
+            @RequestParam(required = false) Integer cursor,
+            @RequestParam(required = false) Integer limit) {
         
         try {
             List<WifiPointDTO> points;
+            String typeFilter = type != null && !type.isEmpty() ? type : null;
+            
+            if (lat == null && lng == null && (cursor != null || limit != null)) {
+                int pageSize = Math.min(limit != null && limit > 0 ? limit : maxPageLimit, maxPageLimit);
+                
+                // Берём на одну точку больше, чтобы узнать, есть ли следующая страница
+                points = wifiPointService.getPointsPage(typeFilter, cursor, pageSize + 1);
+                Integer nextCursor = null;
+                if (points.size() > pageSize) {
+                    points = points.subList(0, pageSize);
+                    nextCursor = points.get(pageSize - 1).getId();
+                }
+                
+                Map<String, Object> response = new HashMap<>();
+                response.put("success", true);
+                response.put("count", points.size());
+                response.put("data", points);
+                response.put("limit", pageSize);
+                response.put("next_cursor", nextCursor);
+                return ResponseEntity.ok(response);
+            }
             
             // Если указаны координаты - ищем в радиусе
             if (lat != null && lng != null) {
                 points = wifiPointService.getPointsNearLocation(lat, lng, radius);
+            } else if (typeFilter != null) {
+                // Только тип - берём готовый список точек этого типа
+                points = wifiPointService.getPointsByType(typeFilter);
             } else {
                 // Иначе все точки
                 points = wifiPointService.getAllPoints();
             }
             
-            // Фильтр по типу, если указан
-            if (type != null && !type.isEmpty()) {
+            // Фильтр по типу для поиска в радиусе
+            if (lat != null && lng != null && typeFilter != null) {
                 points = points.stream()
                         .filter(p -> p.getType().equals(type))
                         .toList();
@@ -59,6 +105,15 @@ public class WifiPointController {
         }
     }
     
+    // Выгрузить все точки (или точки одного типа) в формате NDJSON: по одной точке на строку,
+    // по возрастанию id, ответ пишется по мере чтения снимка без сборки всего списка
+    @GetMapping(value = "/stream", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamPoints(@RequestParam(required = false) String type) {
+        String typeFilter = type != null && !type.isEmpty() ? type : null;
+        StreamingResponseBody body = out -> wifiPointService.streamPoints(typeFilter, out);
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+    }
+    
     // Получить ближайшие точки
     @GetMapping("/nearby")
     public ResponseEntity<Map<String, Object>> getNearby(
@@ -83,4 +138,57 @@ public class WifiPointController {
             return ResponseEntity.status(500).body(error);
         }
     }
+    
+    /**
+     * Тайл карты с точками Wi-Fi: GET /api/wifi-points/tiles/{z}/{x}/{y}
+     * На мелких масштабах - кластеры (центр, число точек и число по типам), на крупных - сами точки.
+     * Ответ несёт ETag, повторный запрос с If-None-Match получает 304 без тела
+     */
+    @GetMapping("/tiles/{z}/{x}/{y}")
+    public ResponseEntity<?> getTile(
+            @PathVariable int z,
+            @PathVariable int x,
+            @PathVariable int y,
+            WebRequest webRequest) {
+        
+        if (z < 0 || z > WifiTileService.MAX_ZOOM || x < 0 || y < 0 || x >= (1 << z) || y >= (1 << z)) {
+            Map<String, Object> error = new HashMap<>();
+            error.put("success", false);
+            error.put("error", "Тайл вне сетки масштаба");
+            return ResponseEntity.badRequest().body(error);
+        }
+        
+        try {
+            WifiTileService.WifiTile tile = wifiTileService.getTile(z, x, y);
+            CacheControl cacheControl = CacheControl.maxAge(tileMaxAgeSeconds, TimeUnit.SECONDS).cachePublic();
+            
+            // Сравнение с If-None-Match по правилам HTTP: список тегов, "*" и слабые теги W/
+            if (webRequest.checkNotModified(tile.getEtag())) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                        .eTag(tile.getEtag())
+                        .cacheControl(cacheControl)
+                        .build();
+            }
+            return ResponseEntity.ok()
+                    .eTag(tile.getEtag())
+                    .cacheControl(cacheControl)
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .body(tile.getBody());
+        } catch (Exception e) {
+            Map<String, Object> error = new HashMap<>();
+            error.put("success", false);
+            error.put("error", "Ошибка построения тайла");
+            error.put("message", e.getMessage());
+            return ResponseEntity.status(500).body(error);
+        }
+    }
+    
+    // Счётчики кэша тайлов
+    @GetMapping("/tiles/cache")
+    public ResponseEntity<Map<String, Object>> getTileCacheStats() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("cache", wifiTileService.getCacheStats());
+        return ResponseEntity.ok(response);
+    }
 }
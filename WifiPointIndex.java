@@ -0,0 +1,122 @@
+package ru.moscow.wifi.util;
+
+import ru.moscow.wifi.model.WifiPoint;
+
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * Пространственный индекс по небольшому набору точек Wi-Fi (например, точкам вдоль одного маршрута)
+ * Строится один раз на запрос, дальше все проверки покрытия и поиск ближайшей точки
+ * просматривают только соседние ячейки сетки вместо всего списка
+ */
+public class WifiPointIndex {
+    private final List<WifiPoint> points;
+    private final double[] lats;
+    private final double[] lngs;
+    private final double[] radii;
+    private final double maxRadius;
+    private final SpatialGrid grid;
+    
+    /**
+     * @param points точки (номер точки в индексе = индекс в списке)
+     * @param cellSizeMeters размер ячейки сетки в метрах
+     * @param defaultCoverageRadius радиус покрытия для точек, у которых он не задан
+     */
+    public WifiPointIndex(List<WifiPoint> points, double cellSizeMeters, double defaultCoverageRadius) {
+        this.points = points;
+        this.lats = new double[points.size()];
+        this.lngs = new double[points.size()];
+        this.radii = new double[points.size()];
+        double max = 0;
+        for (int i = 0; i < points.size(); i++) {
+            WifiPoint point = points.get(i);
+            lats[i] = point.getLatitude();
+            lngs[i] = point.getLongitude();
+            radii[i] = point.getCoverageRadius() != null && point.getCoverageRadius() > 0
+                    ? point.getCoverageRadius() : defaultCoverageRadius;
+            max = Math.max(max, radii[i]);
+        }
+        this.maxRadius = max;
+        this.grid = new SpatialGrid(lats, lngs, cellSizeMeters);
+    }
+    
+    public WifiPoint get(int i) {
+        return points.get(i);
+    }
+    
+    public double getLat(int i) {
+        return lats[i];
+    }
+    
+    public double getLng(int i) {
+        return lngs[i];
+    }
+    
+    /**
+     * Радиус покрытия точки в метрах
+     */
+    public double getCoverageRadius(int i) {
+        return radii[i];
+    }
+    
+    /**
+     * Наибольший радиус покрытия среди всех точек (запас для поиска по прямоугольнику)
+     */
+    public double getMaxCoverageRadius() {
+        return maxRadius;
+    }
+    
+    /**
+     * Перебрать точки на расстоянии не больше radiusMeters от координаты
+     */
+    public void forEachWithin(double lat, double lng, double radiusMeters, IntConsumer action) {
+        grid.forEachCandidate(lat, lng, radiusMeters, i -> {
+            if (GeometryUtil.calculateDistance(lat, lng, lats[i], lngs[i]) <= radiusMeters) {
+                action.accept(i);
+            }
+        });
+    }
+    
+    /**
+     * Перебрать точки из ячеек, пересекающихся с прямоугольником (точное расстояние не проверяется)
+     */
+    public void forEachCandidate(double minLat, double maxLat, double minLng, double maxLng, IntConsumer action) {
+        grid.forEachCandidate(minLat, maxLat, minLng, maxLng, action);
+    }
+    
+    /**
+     * Есть ли точка на расстоянии не больше radiusMeters от координаты
+     */
+    public boolean hasPointWithin(double lat, double lng, double radiusMeters) {
+        boolean[] found = {false};
+        grid.forEachCandidate(lat, lng, radiusMeters, i -> {
+            if (!found[0] && GeometryUtil.calculateDistance(lat, lng, lats[i], lngs[i]) <= radiusMeters) {
+                found[0] = true;
+            }
+        });
+        return found[0];
+    }
+    
+    /**
+     * Найти ближайшую точку не дальше maxDistance
+     * При равном расстоянии выбирается точка с меньшим номером, как при обходе списка по порядку
+     *
+     * @return номер точки или -1, если такой точки нет
+     */
+    public int findNearest(double lat, double lng, double maxDistance) {
+        int[] nearest = {-1};
+        double[] minDistance = {Double.MAX_VALUE};
+        grid.forEachCandidate(lat, lng, maxDistance, i -> {
+            double distance = GeometryUtil.calculateDistance(lat, lng, lats[i], lngs[i]);
+            if (distance > maxDistance) {
+                return;
+            }
+            if (distance < minDistance[0] || (distance == minDistance[0] && i < nearest[0])) {
+                minDistance[0] = distance;
+                nearest[0] = i;
+            }
+        });
+        return nearest[0];
+    }
+}
@@ -0,0 +1,173 @@
+package ru.moscow.wifi.util;
+
+import ru.moscow.wifi.model.WifiPoint;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Объединение почти совпадающих точек Wi-Fi из разных датасетов
+ *
+ * Одна и та же библиотека часто есть и в своём датасете, и в городском Wi-Fi в паре метров от него.
+ * Точки обходятся от большего радиуса покрытия к меньшему; каждая ещё не занятая точка становится
+ * главной и забирает все свободные точки в пределах mergeDistance. Соседи ищутся через SpatialGrid
+ * с ячейкой mergeDistance, поэтому время почти линейное, а размер группы ограничен 2 * mergeDistance
+ * (цепочка близких точек не склеивается в одну)
+ */
+public class WifiPointMerger {
+    
+    private WifiPointMerger() {
+    }
+    
+    /**
+     * Объединить точки ближе mergeDistance метров
+     * Группа заменяется копией главной точки (id, название, тип, источник) в центре группы,
+     * радиус покрытия увеличивается так, чтобы накрыть покрытие всех точек группы.
+     * Одиночные точки возвращаются как есть, порядок - как у главных точек во входном списке
+     *
+     * @param defaultCoverageRadius радиус покрытия для точек, у которых он не задан
+     */
+    public static Result merge(List<WifiPoint> points, double mergeDistance, double defaultCoverageRadius) {
+        int n = points.size();
+        if (mergeDistance <= 0 || n < 2) {
+            return new Result(points, n, 0);
+        }
+        
+        double[] lats = new double[n];
+        double[] lngs = new double[n];
+        double[] radii = new double[n];
+        for (int i = 0; i < n; i++) {
+            WifiPoint point = points.get(i);
+            lats[i] = point.getLatitude();
+            lngs[i] = point.getLongitude();
+            radii[i] = point.getCoverageRadius() != null && point.getCoverageRadius() > 0
+                    ? point.getCoverageRadius() : defaultCoverageRadius;
+        }
+        
+        // Главной становится точка с большим радиусом покрытия, при равенстве - с меньшим id
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> {
+            int byRadius = Double.compare(radii[b], radii[a]);
+            return byRadius != 0 ? byRadius : Integer.compare(idOf(points.get(a)), idOf(points.get(b)));
+        });
+        
+        SpatialGrid grid = new SpatialGrid(lats, lngs, mergeDistance);
+        int[] leader = new int[n];
+        int[] groupSize = new int[n];
+        Arrays.fill(leader, -1);
+        for (int i : order) {
+            if (leader[i] >= 0) {
+                continue;
+            }
+            leader[i] = i;
+            groupSize[i] = 1;
+            grid.forEachCandidate(lats[i], lngs[i], mergeDistance, j -> {
+                if (leader[j] < 0
+                        && GeometryUtil.calculateDistance(lats[i], lngs[i], lats[j], lngs[j]) <= mergeDistance) {
+                    leader[j] = i;
+                    groupSize[i]++;
+                }
+            });
+        }
+        
+        // Центр группы - среднее координат, радиус - до дальнего края покрытия участников
+        double[] centerLat = new double[n];
+        double[] centerLng = new double[n];
+        for (int i = 0; i < n; i++) {
+            centerLat[leader[i]] += lats[i] / groupSize[leader[i]];
+            centerLng[leader[i]] += lngs[i] / groupSize[leader[i]];
+        }
+        double[] mergedRadius = new double[n];
+        for (int i = 0; i < n; i++) {
+            int group = leader[i];
+            double reach = GeometryUtil.calculateDistance(centerLat[group], centerLng[group], lats[i], lngs[i])
+                    + radii[i];
+            mergedRadius[group] = Math.max(mergedRadius[group], reach);
+        }
+        
+        List<WifiPoint> result = new ArrayList<>();
+        int groups = 0;
+        for (int i = 0; i < n; i++) {
+            if (leader[i] != i) {
+                continue;
+            }
+            if (groupSize[i] == 1) {
+                result.add(points.get(i));
+            } else {
+                result.add(copy(points.get(i), centerLat[i], centerLng[i], (int) Math.ceil(mergedRadius[i])));
+                groups++;
+            }
+        }
+        return new Result(result, n, groups);
+    }
+    
+    private static int idOf(WifiPoint point) {
+        return point.getId() != null ? point.getId() : Integer.MAX_VALUE;
+    }
+    
+    private static WifiPoint copy(WifiPoint source, double lat, double lng, int coverageRadius) {
+        WifiPoint point = new WifiPoint();
+        point.setId(source.getId());
+        point.setName(source.getName());
+        point.setType(source.getType());
+        point.setLatitude(lat);
+        point.setLongitude(lng);
+        point.setAddress(source.getAddress());
+        point.setCoverageRadius(coverageRadius);
+        point.setSourceDataset(source.getSourceDataset());
+        point.setSourceId(source.getSourceId());
+        point.setContentHash(source.getContentHash());
+        point.setCreatedAt(source.getCreatedAt());
+        return point;
+    }
+    
+    /**
+     * Результат объединения: итоговые точки и сколько точек было до него
+     */
+    public static class Result {
+        private final List<WifiPoint> points;
+        private final int sourceCount;
+        private final int mergedGroups;
+        
+        Result(List<WifiPoint> points, int sourceCount, int mergedGroups) {
+            this.points = points;
+            this.sourceCount = sourceCount;
+            this.mergedGroups = mergedGroups;
+        }
+        
+        public List<WifiPoint> getPoints() {
+            return points;
+        }
+        
+        /**
+         * Точек до объединения
+         */
+        public int getSourceCount() {
+            return sourceCount;
+        }
+        
+        /**
+         * Сколько групп из нескольких точек объединено
+         */
+        public int getMergedGroups() {
+            return mergedGroups;
+        }
+        
+        /**
+         * Сколько точек (узлов графа) убрано объединением
+         */
+        public int getRemoved() {
+            return sourceCount - points.size();
+        }
+        
+        @Override
+        public String toString() {
+            return sourceCount + " -> " + points.size() + " точек (групп: " + mergedGroups + ", убрано "
+                    + getRemoved() + ", " + (sourceCount > 0 ? getRemoved() * 100 / sourceCount : 0) + "%)";
+        }
+    }
+}
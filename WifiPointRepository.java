@@ -17,6 +17,15 @@ public interface WifiPointRepository extends JpaRepository<WifiPoint, Integer> {
     // Найти по типу
     List<WifiPoint> findByType(String type);
     
+    // Максимальный id (вместе с count() показывает, изменилась ли таблица)
+    @Query("SELECT MAX(p.id) FROM WifiPoint p")
+    Integer findMaxId();
+    
+    // Сумма CRC32 строк "id:content_hash" (как WifiPointSnapshotFile.fingerprint): меняется и при UPDATE
+    @Query(value = "SELECT COALESCE(SUM(CRC32(CONCAT(id, ':', COALESCE(content_hash, '')))), 0) " +
+            "FROM wifi_points", nativeQuery = true)
+    Long findContentFingerprint();
+    
     // Найти точки в радиусе (используя SQL функцию ST_Distance_Sphere)
     @Query(value = "SELECT * FROM wifi_points WHERE " +
             "ST_Distance_Sphere(location, ST_GeomFromText(CONCAT('POINT(', :lng, ' ', :lat, ')'), 4326)) <= :radius " +
@@ -1,25 +1,40 @@
 package ru.moscow.wifi.service;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import ru.moscow.wifi.cache.WifiPointSnapshot;
 import ru.moscow.wifi.dto.WifiPointDTO;
 import ru.moscow.wifi.model.WifiPoint;
-import ru.moscow.wifi.repository.WifiPointRepository;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Collectors;
 
+/**
+ * Сервис для чтения точек Wi-Fi
+ * Все запросы обслуживаются из снимка в памяти (WifiPointSnapshotService), без обращения к БД
+ */
 @Service
 public class WifiPointService {
     
     @Autowired
-    private WifiPointRepository wifiPointRepository;
+    private WifiPointSnapshotService wifiPointSnapshotService;
+    
+    @Autowired
+    private ObjectMapper objectMapper;
+    
+    private static final int STREAM_CHUNK = 1000; // сколько точек выгрузка берёт из снимка за один шаг
+    
+    private static final int NEAR_LOCATION_LIMIT = 50; // сколько ближайших точек отдавать при поиске в радиусе
     
     /**
      * Получить все точки Wi-Fi
      */
     public List<WifiPointDTO> getAllPoints() {
-        List<WifiPoint> points = wifiPointRepository.findAll();
+        List<WifiPoint> points = wifiPointSnapshotService.getSnapshot().getPoints();
         return convertToDTO(points);
     }
     
@@ -27,15 +42,53 @@ public class WifiPointService {
      * Получить точки по типу
      */
     public List<WifiPointDTO> getPointsByType(String type) {
-        List<WifiPoint> points = wifiPointRepository.findByType(type);
+        List<WifiPoint> points = wifiPointSnapshotService.getSnapshot().findByType(type);
         return convertToDTO(points);
     }
     
+    /**
+     * Страница точек по возрастанию id, начиная после afterId
+     *
+     * @param type тип точек или null - все типы
+     * @param afterId курсор: id последней точки предыдущей страницы или null - с начала
+     */
+    public List<WifiPointDTO> getPointsPage(String type, Integer afterId, int limit) {
+        WifiPointSnapshot snapshot = wifiPointSnapshotService.getSnapshot();
+        return convertToDTO(snapshot, snapshot.page(type, afterId, limit));
+    }
+    
+    /**
+     * Записать точки в поток в формате NDJSON (одна точка на строку) по возрастанию id
+     * Точки читаются из одного снимка порциями по STREAM_CHUNK, поэтому весь список в памяти не собирается
+     *
+     * @return сколько точек записано
+     */
+    public int streamPoints(String type, OutputStream out) throws IOException {
+        WifiPointSnapshot snapshot = wifiPointSnapshotService.getSnapshot();
+        int written = 0;
+        Integer afterId = null;
+        int[] chunk;
+        do {
+            chunk = snapshot.page(type, afterId, STREAM_CHUNK);
+            for (int i : chunk) {
+                out.write(objectMapper.writeValueAsBytes(convertToDTO(snapshot.get(i))));
+                out.write('\n');
+            }
+            written += chunk.length;
+            if (chunk.length > 0) {
+                afterId = snapshot.get(chunk[chunk.length - 1]).getId();
+                out.flush();
+            }
+        } while (chunk.length == STREAM_CHUNK && afterId != null);
+        return written;
+    }
+    
     /**
      * Получить точки в радиусе от координаты
      */
     public List<WifiPointDTO> getPointsNearLocation(Double lat, Double lng, Integer radius) {
-        List<WifiPoint> points = wifiPointRepository.findNearLocation(lat, lng, radius);
+        List<WifiPoint> points = wifiPointSnapshotService.getSnapshot()
+                .findNear(lat, lng, radius, NEAR_LOCATION_LIMIT);
         return convertToDTO(points);
     }
     
@@ -48,6 +101,14 @@ public class WifiPointService {
                 .collect(Collectors.toList());
     }
     
+    private List<WifiPointDTO> convertToDTO(WifiPointSnapshot snapshot, int[] indices) {
+        List<WifiPointDTO> result = new ArrayList<>(indices.length);
+        for (int i : indices) {
+            result.add(convertToDTO(snapshot.get(i)));
+        }
+        return result;
+    }
+    
     private WifiPointDTO convertToDTO(WifiPoint point) {
         WifiPointDTO dto = new WifiPointDTO();
         dto.setId(point.getId());
@@ -0,0 +1,198 @@
+package ru.moscow.wifi.cache;
+
+import ru.moscow.wifi.model.WifiPoint;
+import ru.moscow.wifi.util.GeometryUtil;
+import ru.moscow.wifi.util.RouteCorridor;
+import ru.moscow.wifi.util.SpatialGrid;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Неизменяемый снимок всех точек Wi-Fi в памяти
+ *
+ * Координаты хранятся в примитивных массивах, поиск по радиусу и коридору идёт через SpatialGrid,
+ * для каждого типа заранее собран список номеров точек по возрастанию id (для постраничного чтения). После импорта строится новый снимок
+ * и подменяет старый целиком, поэтому читать снимок можно из любого потока без блокировок
+ */
+public class WifiPointSnapshot {
+    private static final double CELL_SIZE = 250; // размер ячейки индекса в метрах
+    
+    private final WifiPoint[] points;
+    private final double[] lats;
+    private final double[] lngs;
+    private final SpatialGrid index;
+    private final int[] byId; // номера точек по возрастанию id
+    private final Map<String, int[]> typeIndex;
+    private final double maxCoverageRadius;
+    
+    /**
+     * Построить снимок по списку точек (номер точки = индекс в списке)
+     */
+    public WifiPointSnapshot(List<WifiPoint> wifiPoints) {
+        int n = wifiPoints.size();
+        this.points = wifiPoints.toArray(new WifiPoint[0]);
+        this.lats = new double[n];
+        this.lngs = new double[n];
+        double maxRadius = 0;
+        for (int i = 0; i < n; i++) {
+            lats[i] = points[i].getLatitude();
+            lngs[i] = points[i].getLongitude();
+            if (points[i].getCoverageRadius() != null) {
+                maxRadius = Math.max(maxRadius, points[i].getCoverageRadius());
+            }
+        }
+        this.maxCoverageRadius = maxRadius;
+        this.index = new SpatialGrid(lats, lngs, CELL_SIZE);
+        
+        // Упаковываем (id, номер точки) в одно число и сортируем без упаковки в объекты
+        long[] packed = new long[n];
+        for (int i = 0; i < n; i++) {
+            packed[i] = ((long) idOf(i) << 32) | i;
+        }
+        Arrays.sort(packed);
+        this.byId = new int[n];
+        for (int k = 0; k < n; k++) {
+            byId[k] = (int) packed[k];
+        }
+        
+        Map<String, List<Integer>> byType = new HashMap<>();
+        for (int i : byId) {
+            if (points[i].getType() != null) {
+                byType.computeIfAbsent(points[i].getType(), key -> new ArrayList<>()).add(i);
+            }
+        }
+        Map<String, int[]> types = new HashMap<>();
+        byType.forEach((type, list) -> types.put(type, list.stream().mapToInt(Integer::intValue).toArray()));
+        this.typeIndex = types;
+    }
+    
+    /**
+     * Пустой снимок (до первой загрузки из БД)
+     */
+    public static WifiPointSnapshot empty() {
+        return new WifiPointSnapshot(Collections.emptyList());
+    }
+    
+    public int size() {
+        return points.length;
+    }
+    
+    /**
+     * Наибольший заданный радиус покрытия среди точек снимка (0, если радиусы не заданы)
+     */
+    public double getMaxCoverageRadius() {
+        return maxCoverageRadius;
+    }
+    
+    /**
+     * Все точки снимка (список только для чтения)
+     */
+    public List<WifiPoint> getPoints() {
+        return Collections.unmodifiableList(Arrays.asList(points));
+    }
+    
+    /**
+     * Страница точек по возрастанию id (keyset): до limit номеров точек с id больше afterId
+     *
+     * @param type тип точек или null - все типы
+     * @param afterId id последней точки предыдущей страницы или null - с начала
+     */
+    public int[] page(String type, Integer afterId, int limit) {
+        int[] order = type != null ? typeIndex.getOrDefault(type, new int[0]) : byId;
+        int from = afterId != null ? firstAfter(order, afterId) : 0;
+        return Arrays.copyOfRange(order, from, Math.min(order.length, from + Math.max(limit, 0)));
+    }
+    
+    /**
+     * Позиция первой точки с id больше afterId в списке, отсортированном по id
+     */
+    private int firstAfter(int[] order, int afterId) {
+        int low = 0;
+        int high = order.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (idOf(order[mid]) <= afterId) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+    
+    private int idOf(int i) {
+        return points[i].getId() != null ? points[i].getId() : Integer.MAX_VALUE;
+    }
+    
+    /**
+     * Точки заданного типа (по возрастанию id)
+     */
+    public List<WifiPoint> findByType(String type) {
+        return toList(typeIndex.getOrDefault(type, new int[0]));
+    }
+    
+    /**
+     * Точки в радиусе от координаты, ближайшие первыми
+     *
+     * @param limit максимальное количество точек (0 - без ограничения)
+     */
+    public List<WifiPoint> findNear(double lat, double lng, double radiusMeters, int limit) {
+        List<double[]> found = new ArrayList<>();
+        index.forEachCandidate(lat, lng, radiusMeters, i -> {
+            double distance = GeometryUtil.calculateDistance(lat, lng, lats[i], lngs[i]);
+            if (distance <= radiusMeters) {
+                found.add(new double[]{distance, i});
+            }
+        });
+        found.sort((a, b) -> Double.compare(a[0], b[0]));
+        
+        int count = limit > 0 ? Math.min(limit, found.size()) : found.size();
+        List<WifiPoint> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(points[(int) found.get(i)[1]]);
+        }
+        return result;
+    }
+    
+    /**
+     * Номера точек в прямоугольнике: южная и западная границы включаются, северная и восточная - нет,
+     * поэтому соседние прямоугольники (тайлы карты) не делят точки между собой
+     */
+    public int[] findInBounds(double south, double north, double west, double east) {
+        IntStream.Builder found = IntStream.builder();
+        index.forEachCandidate(south, north, west, east, i -> {
+            if (lats[i] >= south && lats[i] < north && lngs[i] >= west && lngs[i] < east) {
+                found.add(i);
+            }
+        });
+        return found.build().toArray();
+    }
+    
+    /**
+     * Точка по номеру в снимке
+     */
+    public WifiPoint get(int i) {
+        return points[i];
+    }
+    
+    /**
+     * Точки на расстоянии не больше radiusMeters от ломаной маршрута, в порядке вдоль маршрута
+     */
+    public List<WifiPoint> findInCorridor(List<double[]> route, double radiusMeters) {
+        return toList(RouteCorridor.findPoints(route, lats, lngs, index, radiusMeters));
+    }
+    
+    private List<WifiPoint> toList(int[] indices) {
+        List<WifiPoint> result = new ArrayList<>(indices.length);
+        for (int i : indices) {
+            result.add(points[i]);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,257 @@
+package ru.moscow.wifi.cache;
+
+import ru.moscow.wifi.model.WifiPoint;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Двоичный файл со всеми точками Wi-Fi для быстрого старта без чтения таблицы через JPA
+ *
+ * Формат: заголовок (сигнатура, версия, число строк, максимальный id и контрольная сумма содержимого
+ * таблицы на момент записи),
+ * словарь повторяющихся строк (типы и датасеты), затем столбцы фиксированной длины
+ * (id, координаты, радиусы, номера типа и датасета) и строки переменной длины.
+ * Столбцы читаются из отображённого в память файла целиком, без разбора по одному числу
+ */
+public class WifiPointSnapshotFile {
+    private static final int FILE_MAGIC = 0x57465053; // "WFPS"
+    private static final int FILE_VERSION = 2;
+    private static final int NULL = -1; // отсутствующее значение в столбцах и длинах строк
+    
+    private final List<WifiPoint> points;
+    private final long rowCount;
+    private final int maxId;
+    private final long fingerprint;
+    
+    private WifiPointSnapshotFile(List<WifiPoint> points, long rowCount, int maxId, long fingerprint) {
+        this.points = points;
+        this.rowCount = rowCount;
+        this.maxId = maxId;
+        this.fingerprint = fingerprint;
+    }
+    
+    public List<WifiPoint> getPoints() {
+        return points;
+    }
+    
+    /**
+     * Сколько строк было в таблице, когда файл записывался
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+    
+    /**
+     * Максимальный id в таблице, когда файл записывался
+     */
+    public int getMaxId() {
+        return maxId;
+    }
+    
+    /**
+     * Контрольная сумма пар (id, contentHash) точек файла, см. fingerprint
+     */
+    public long getFingerprint() {
+        return fingerprint;
+    }
+    
+    /**
+     * Контрольная сумма содержимого: сумма CRC32 строк "id:contentHash" по всем точкам
+     * Сумма не зависит от порядка точек и считается так же, как WifiPointRepository.findContentFingerprint,
+     * поэтому изменение точки на месте (UPDATE с новым content_hash) тоже меняет её
+     */
+    public static long fingerprint(List<WifiPoint> points) {
+        CRC32 crc = new CRC32();
+        long sum = 0;
+        for (WifiPoint point : points) {
+            if (point.getId() == null) {
+                continue;
+            }
+            String hash = point.getContentHash() != null ? point.getContentHash() : "";
+            crc.reset();
+            crc.update((point.getId() + ":" + hash).getBytes(StandardCharsets.UTF_8));
+            sum += crc.getValue();
+        }
+        return sum;
+    }
+    
+    /**
+     * Записать точки в файл (через временный файл, чтобы другой процесс не прочитал его наполовину)
+     */
+    public static void save(Path file, List<WifiPoint> points) throws IOException {
+        int n = points.size();
+        int maxId = 0;
+        Map<String, Integer> dictionary = new HashMap<>();
+        List<String> words = new ArrayList<>();
+        int[] typeIndex = new int[n];
+        int[] datasetIndex = new int[n];
+        for (int i = 0; i < n; i++) {
+            WifiPoint point = points.get(i);
+            if (point.getId() != null) {
+                maxId = Math.max(maxId, point.getId());
+            }
+            typeIndex[i] = wordIndex(point.getType(), dictionary, words);
+            datasetIndex[i] = wordIndex(point.getSourceDataset(), dictionary, words);
+        }
+        
+        Path dir = file.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        // У каждого процесса свой временный файл, готовый файл подменяется атомарным переименованием
+        Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                out.writeInt(FILE_MAGIC);
+                out.writeInt(FILE_VERSION);
+                out.writeLong(n);
+                out.writeInt(maxId);
+                out.writeLong(fingerprint(points));
+                out.writeInt(n);
+                out.writeInt(words.size());
+                for (String word : words) {
+                    writeString(out, word);
+                }
+            
+                for (WifiPoint point : points) {
+                    out.writeInt(point.getId() != null ? point.getId() : NULL);
+                }
+                for (WifiPoint point : points) {
+                    out.writeDouble(point.getLatitude());
+                }
+                for (WifiPoint point : points) {
+                    out.writeDouble(point.getLongitude());
+                }
+                for (WifiPoint point : points) {
+                    out.writeInt(point.getCoverageRadius() != null ? point.getCoverageRadius() : NULL);
+                }
+                for (int value : typeIndex) {
+                    out.writeInt(value);
+                }
+                for (int value : datasetIndex) {
+                    out.writeInt(value);
+                }
+            
+                for (WifiPoint point : points) {
+                    writeString(out, point.getName());
+                    writeString(out, point.getAddress());
+                    writeString(out, point.getSourceId());
+                    writeString(out, point.getContentHash());
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+    
+    /**
+     * Прочитать точки из файла
+     *
+     * @return содержимое файла или null, если файла нет или он записан другой версией
+     */
+    public static WifiPointSnapshotFile load(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < 8 || buffer.getInt() != FILE_MAGIC || buffer.getInt() != FILE_VERSION) {
+                return null;
+            }
+            long rowCount = buffer.getLong();
+            int maxId = buffer.getInt();
+            long fingerprint = buffer.getLong();
+            int n = buffer.getInt();
+            String[] words = new String[buffer.getInt()];
+            for (int i = 0; i < words.length; i++) {
+                words[i] = readString(buffer);
+            }
+            
+            int[] ids = new int[n];
+            double[] lats = new double[n];
+            double[] lngs = new double[n];
+            int[] radii = new int[n];
+            int[] typeIndex = new int[n];
+            int[] datasetIndex = new int[n];
+            readInts(buffer, ids);
+            readDoubles(buffer, lats);
+            readDoubles(buffer, lngs);
+            readInts(buffer, radii);
+            readInts(buffer, typeIndex);
+            readInts(buffer, datasetIndex);
+            
+            List<WifiPoint> points = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                WifiPoint point = new WifiPoint();
+                point.setId(ids[i] != NULL ? ids[i] : null);
+                point.setLatitude(lats[i]);
+                point.setLongitude(lngs[i]);
+                point.setCoverageRadius(radii[i] != NULL ? radii[i] : null);
+                point.setType(typeIndex[i] != NULL ? words[typeIndex[i]] : null);
+                point.setSourceDataset(datasetIndex[i] != NULL ? words[datasetIndex[i]] : null);
+                point.setName(readString(buffer));
+                point.setAddress(readString(buffer));
+                point.setSourceId(readString(buffer));
+                point.setContentHash(readString(buffer));
+                points.add(point);
+            }
+            return new WifiPointSnapshotFile(points, rowCount, maxId, fingerprint);
+        }
+    }
+    
+    private static int wordIndex(String word, Map<String, Integer> dictionary, List<String> words) {
+        if (word == null) {
+            return NULL;
+        }
+        return dictionary.computeIfAbsent(word, key -> {
+            words.add(key);
+            return words.size() - 1;
+        });
+    }
+    
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(NULL);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+    
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length == NULL) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    private static void readInts(ByteBuffer buffer, int[] values) {
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + values.length * 4);
+    }
+    
+    private static void readDoubles(ByteBuffer buffer, double[] values) {
+        buffer.asDoubleBuffer().get(values);
+        buffer.position(buffer.position() + values.length * 8);
+    }
+}
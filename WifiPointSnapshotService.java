@@ -0,0 +1,244 @@
+package ru.moscow.wifi.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import ru.moscow.wifi.cache.WifiPointChangeSet;
+import ru.moscow.wifi.cache.WifiPointSnapshot;
+import ru.moscow.wifi.cache.WifiPointSnapshotFile;
+import ru.moscow.wifi.cache.WifiPointsChangedEvent;
+import ru.moscow.wifi.model.WifiPoint;
+import ru.moscow.wifi.repository.WifiPointRepository;
+import ru.moscow.wifi.util.WifiPointMerger;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Сервис, который держит в памяти снимок всех точек Wi-Fi
+ * БД читается целиком только при старте, после импорта к снимку применяются изменения,
+ * запросы работают со снимком. Почти совпадающие точки разных датасетов объединяются
+ * в отдельный снимок для маршрутов (WifiPointMerger): граф и стратегии видят объединённые точки,
+ * а списки, страницы и тайлы - точки как в БД, со своими типами и координатами
+ *
+ * После каждой загрузки из БД и каждого импорта точки записываются в двоичный файл
+ * (WifiPointSnapshotFile). При старте снимок читается из файла, если таблица с тех пор
+ * не изменилась (то же число строк, максимальный id и контрольная сумма пар id и content_hash,
+ * поэтому замечаются и изменения на месте - импорт другим экземпляром или падение до записи файла),
+ * иначе - из БД
+ */
+@Service
+public class WifiPointSnapshotService {
+    
+    @Autowired
+    private WifiPointRepository wifiPointRepository;
+    
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+    
+    private static final double DEFAULT_COVERAGE_RADIUS = 50; // радиус покрытия Wi-Fi в метрах
+    
+    // Точки ближе этого расстояния (в метрах) объединяются в одну, 0 - не объединять
+    @Value("${wifi.points.merge-distance:15}")
+    private double mergeDistance;
+    
+    // Двоичный файл с точками для быстрого старта, пустое значение - не использовать файл
+    @Value("${wifi.snapshot.file:data/snapshot/wifi-points.bin}")
+    private String snapshotFile;
+    
+    private volatile WifiPointSnapshot snapshot;
+    
+    // Снимок объединённых точек для графа и стратегий (тот же снимок, если объединять нечего)
+    private volatile WifiPointSnapshot routingSnapshot;
+    
+    private volatile WifiPointMerger.Result lastMerge;
+    
+    /**
+     * Загрузить снимок при старте приложения
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        synchronized (this) {
+            if (snapshot == null && !loadFromFile()) {
+                reload();
+            }
+        }
+    }
+    
+    /**
+     * Загрузить снимок из файла, если файл соответствует таблице
+     * @return false - файла нет, он другой версии, повреждён или устарел
+     */
+    private synchronized boolean loadFromFile() {
+        if (snapshotFile.isEmpty()) {
+            return false;
+        }
+        try {
+            long start = System.currentTimeMillis();
+            
+            WifiPointSnapshotFile file = WifiPointSnapshotFile.load(Path.of(snapshotFile));
+            if (file == null) {
+                return false;
+            }
+            Integer maxId = wifiPointRepository.findMaxId();
+            if (file.getRowCount() != wifiPointRepository.count() || file.getMaxId() != (maxId != null ? maxId : 0)
+                    || file.getFingerprint() != wifiPointRepository.findContentFingerprint()) {
+                System.out.println("Файл снимка точек Wi-Fi устарел, точки читаются из БД");
+                return false;
+            }
+            
+            publish(file.getPoints());
+            
+            System.out.println("Снимок точек Wi-Fi загружен из " + snapshotFile + ": " + snapshot.size()
+                    + " точек за " + (System.currentTimeMillis() - start) + " мс");
+            
+            eventPublisher.publishEvent(new WifiPointsChangedEvent(snapshot, routingSnapshot));
+            return true;
+        } catch (Exception e) {
+            System.err.println("Ошибка чтения файла снимка точек Wi-Fi: " + e.getMessage());
+            return false;
+        }
+    }
+    
+    /**
+     * Записать точки в файл снимка; ошибка записи не мешает работе со снимком в памяти
+     */
+    private void saveToFile(List<WifiPoint> points) {
+        if (snapshotFile.isEmpty()) {
+            return;
+        }
+        try {
+            long start = System.currentTimeMillis();
+            WifiPointSnapshotFile.save(Path.of(snapshotFile), points);
+            System.out.println("Файл снимка точек Wi-Fi записан за " + (System.currentTimeMillis() - start) + " мс");
+        } catch (Exception e) {
+            System.err.println("Ошибка записи файла снимка точек Wi-Fi: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Перечитать точки из БД и подменить снимок
+     * Запросы в процессе дорабатывают со старым снимком
+     */
+    public synchronized void reload() {
+        try {
+            long start = System.currentTimeMillis();
+            
+            List<WifiPoint> points = wifiPointRepository.findAll();
+            publish(points);
+            
+            System.out.println("Снимок точек Wi-Fi загружен: " + snapshot.size() + " точек за "
+                    + (System.currentTimeMillis() - start) + " мс");
+            
+            eventPublisher.publishEvent(new WifiPointsChangedEvent(snapshot, routingSnapshot));
+            saveToFile(points);
+        } catch (Exception e) {
+            System.err.println("Ошибка загрузки снимка точек Wi-Fi: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+    
+    /**
+     * Применить изменения импорта к текущему снимку без чтения БД
+     * Изменённые точки заменяются на месте, удалённые убираются, новые добавляются в конец
+     */
+    public synchronized void apply(WifiPointChangeSet changes) {
+        List<WifiPoint> current = snapshot != null ? snapshot.getPoints() : null;
+        List<WifiPoint> inserted = changes.getInserted();
+        if (current == null || inserted.stream().anyMatch(point -> point.getId() == null)) {
+            // Без снимка или без id новых точек применить изменения нельзя
+            reload();
+            return;
+        }
+        
+        long start = System.currentTimeMillis();
+        
+        Map<Integer, WifiPoint> updated = new HashMap<>();
+        for (WifiPoint point : changes.getUpdated()) {
+            updated.put(point.getId(), point);
+        }
+        Set<Integer> deleted = new HashSet<>(changes.getDeleted());
+        
+        List<WifiPoint> points = new ArrayList<>(current.size() + inserted.size());
+        List<WifiPoint> replaced = new ArrayList<>(); // прежние версии изменённых и удалённых точек
+        for (WifiPoint point : current) {
+            WifiPoint newer = updated.get(point.getId());
+            if (deleted.contains(point.getId()) || newer != null) {
+                replaced.add(point);
+            }
+            if (!deleted.contains(point.getId())) {
+                points.add(newer != null ? newer : point);
+            }
+        }
+        points.addAll(inserted);
+        
+        publish(points);
+        
+        System.out.println("Снимок точек Wi-Fi обновлён (" + changes + "): " + snapshot.size() + " точек за "
+                + (System.currentTimeMillis() - start) + " мс");
+        
+        eventPublisher.publishEvent(new WifiPointsChangedEvent(snapshot, routingSnapshot, changes, replaced));
+        saveToFile(points);
+    }
+    
+    /**
+     * Подменить снимок точек и снимок объединённых точек для маршрутов
+     */
+    private void publish(List<WifiPoint> points) {
+        long start = System.currentTimeMillis();
+        WifiPointMerger.Result merged = WifiPointMerger.merge(points, mergeDistance, DEFAULT_COVERAGE_RADIUS);
+        System.out.println("Объединение близких точек Wi-Fi: " + merged + " за "
+                + (System.currentTimeMillis() - start) + " мс");
+        
+        WifiPointSnapshot newSnapshot = new WifiPointSnapshot(points);
+        WifiPointSnapshot newRoutingSnapshot = merged.getRemoved() > 0
+                ? new WifiPointSnapshot(merged.getPoints()) : newSnapshot;
+        lastMerge = merged;
+        // Сначала снимок для маршрутов: getSnapshot() != null означает, что готовы оба
+        routingSnapshot = newRoutingSnapshot;
+        snapshot = newSnapshot;
+    }
+    
+    /**
+     * Итог последнего объединения точек или null, если снимок ещё не строился
+     */
+    public WifiPointMerger.Result getLastMerge() {
+        return lastMerge;
+    }
+    
+    /**
+     * Получить текущий снимок точек как в БД (для списков, страниц и тайлов)
+     * Если запрос пришёл раньше загрузки при старте, снимок загружается сразу
+     */
+    public WifiPointSnapshot getSnapshot() {
+        WifiPointSnapshot current = snapshot;
+        if (current != null) {
+            return current;
+        }
+        synchronized (this) {
+            if (snapshot == null && !loadFromFile()) {
+                reload();
+            }
+            return snapshot != null ? snapshot : WifiPointSnapshot.empty();
+        }
+    }
+    
+    /**
+     * Получить текущий снимок объединённых точек (для стратегий маршрута, по нему же построен граф)
+     */
+    public WifiPointSnapshot getRoutingSnapshot() {
+        if (snapshot == null) {
+            getSnapshot();
+        }
+        WifiPointSnapshot current = routingSnapshot;
+        return current != null ? current : WifiPointSnapshot.empty();
+    }
+}
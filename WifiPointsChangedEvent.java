@@ -0,0 +1,71 @@
+package ru.moscow.wifi.cache;
+
+import ru.moscow.wifi.model.WifiPoint;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Событие: в памяти опубликован новый снимок точек Wi-Fi
+ *
+ * Граф (WifiGraphService) всегда перестраивается по снимку для маршрутов целиком, набор изменений
+ * он не использует. Кэш маршрутов (RouteResultCache) по набору изменений удаляет только маршруты
+ * рядом с затронутыми точками, а при полной перезагрузке (изменения не известны) очищается целиком
+ */
+public class WifiPointsChangedEvent {
+    private final WifiPointSnapshot snapshot;
+    private final WifiPointSnapshot routingSnapshot;
+    private final WifiPointChangeSet changes;
+    private final List<WifiPoint> replaced;
+    
+    public WifiPointsChangedEvent(WifiPointSnapshot snapshot, WifiPointSnapshot routingSnapshot) {
+        this(snapshot, routingSnapshot, null, Collections.emptyList());
+    }
+    
+    /**
+     * @param replaced прежние версии изменённых и удалённых точек (как они были в предыдущем снимке)
+     */
+    public WifiPointsChangedEvent(WifiPointSnapshot snapshot, WifiPointSnapshot routingSnapshot,
+                                  WifiPointChangeSet changes, List<WifiPoint> replaced) {
+        this.snapshot = snapshot;
+        this.routingSnapshot = routingSnapshot;
+        this.changes = changes;
+        this.replaced = replaced;
+    }
+    
+    /**
+     * Точки как в БД (для списков, страниц и тайлов)
+     */
+    public WifiPointSnapshot getSnapshot() {
+        return snapshot;
+    }
+    
+    /**
+     * Точки после объединения близких (для графа и стратегий маршрута)
+     */
+    public WifiPointSnapshot getRoutingSnapshot() {
+        return routingSnapshot;
+    }
+    
+    /**
+     * Изменения относительно предыдущего снимка или null, если снимок перечитан из БД целиком
+     */
+    public WifiPointChangeSet getChanges() {
+        return changes;
+    }
+    
+    /**
+     * Точки, рядом с которыми могли измениться маршруты: новые, изменённые (старое и новое положение)
+     * и удалённые, или null, если снимок перечитан из БД целиком
+     */
+    public List<WifiPoint> getAffectedPoints() {
+        if (changes == null) {
+            return null;
+        }
+        List<WifiPoint> affected = new ArrayList<>(changes.getInserted());
+        affected.addAll(changes.getUpdated());
+        affected.addAll(replaced);
+        return affected;
+    }
+}
@@ -0,0 +1,239 @@
+package ru.moscow.wifi.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import ru.moscow.wifi.cache.TtlLruCache;
+import ru.moscow.wifi.cache.WifiPointSnapshot;
+import ru.moscow.wifi.model.WifiPoint;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Точки Wi-Fi по тайлам карты (z/x/y в проекции Web Mercator, как у тайлов OSM)
+ *
+ * Начиная с wifi.tiles.cluster-zoom тайл содержит сами точки, на более мелких масштабах
+ * тайл делится на cluster-grid x cluster-grid ячеек и для каждой ячейки отдаётся число точек
+ * (по типам) и их центр. Готовые тайлы хранятся сериализованными вместе с ETag,
+ * кэш привязан к снимку точек и сбрасывается, когда снимок подменяется
+ */
+@Service
+public class WifiTileService {
+    
+    public static final int MAX_ZOOM = 22;
+    
+    @Autowired
+    private WifiPointSnapshotService wifiPointSnapshotService;
+    
+    @Autowired
+    private ObjectMapper objectMapper;
+    
+    // С этого масштаба тайл отдаёт отдельные точки, на более мелких - кластеры
+    @Value("${wifi.tiles.cluster-zoom:14}")
+    private int clusterZoom;
+    
+    // Сколько ячеек кластеризации по каждой стороне тайла (256 / 8 = 32 пикселя на ячейку)
+    @Value("${wifi.tiles.cluster-grid:8}")
+    private int clusterGrid;
+    
+    @Value("${wifi.tiles.cache.max-size:4096}")
+    private int cacheSize;
+    
+    @Value("${wifi.tiles.cache.ttl-seconds:3600}")
+    private long cacheTtlSeconds;
+    
+    private volatile TileCache cache;
+    
+    /**
+     * Тайл по координатам, тайлы вне сетки масштаба z не запрашиваются (проверяет контроллер)
+     */
+    public WifiTile getTile(int z, int x, int y) throws JsonProcessingException {
+        WifiPointSnapshot snapshot = wifiPointSnapshotService.getSnapshot();
+        TileCache current = cache;
+        if (current == null || current.snapshot != snapshot) {
+            // Снимок подменился - тайлы старого снимка больше не нужны
+            current = new TileCache(snapshot, new TtlLruCache<>(cacheSize, cacheTtlSeconds * 1000));
+            cache = current;
+        }
+        
+        String key = z + "/" + x + "/" + y;
+        WifiTile tile = current.tiles.get(key);
+        if (tile == null) {
+            tile = buildTile(snapshot, z, x, y);
+            current.tiles.put(key, tile);
+        }
+        return tile;
+    }
+    
+    /**
+     * Статистика кэша тайлов
+     */
+    public Map<String, Object> getCacheStats() {
+        TileCache current = cache;
+        return current != null ? current.tiles.getStats() : new HashMap<>();
+    }
+    
+    private WifiTile buildTile(WifiPointSnapshot snapshot, int z, int x, int y) throws JsonProcessingException {
+        double north = tileLat(y, z);
+        double south = tileLat(y + 1, z);
+        double west = tileLng(x, z);
+        double east = tileLng(x + 1, z);
+        int[] found = snapshot.findInBounds(south, north, west, east);
+        
+        Map<String, Object> body = new HashMap<>();
+        body.put("z", z);
+        body.put("x", x);
+        body.put("y", y);
+        body.put("count", found.length);
+        
+        boolean clustered = z < clusterZoom;
+        body.put("clustered", clustered);
+        if (clustered) {
+            body.put("clusters", cluster(snapshot, found, z, x, y));
+        } else {
+            List<Map<String, Object>> points = new ArrayList<>(found.length);
+            for (int i : found) {
+                points.add(toMap(snapshot.get(i)));
+            }
+            body.put("points", points);
+        }
+        
+        byte[] json = objectMapper.writeValueAsBytes(body);
+        return new WifiTile(json, etag(json));
+    }
+    
+    /**
+     * Кластеры по ячейкам тайла: центр точек ячейки, их число и число по типам
+     * Ячейка из одной точки отдаётся тем же форматом с count = 1
+     */
+    private List<Map<String, Object>> cluster(WifiPointSnapshot snapshot, int[] found, int z, int x, int y) {
+        int cells = clusterGrid * clusterGrid;
+        int[] counts = new int[cells];
+        double[] sumLat = new double[cells];
+        double[] sumLng = new double[cells];
+        List<Map<String, Integer>> types = new ArrayList<>(cells);
+        for (int c = 0; c < cells; c++) {
+            types.add(null);
+        }
+        
+        double scale = Math.pow(2, z);
+        for (int i : found) {
+            WifiPoint point = snapshot.get(i);
+            double lat = point.getLatitude();
+            double lng = point.getLongitude();
+            int col = cellIndex((lng + 180) / 360 * scale - x);
+            int row = cellIndex(mercatorY(lat) * scale - y);
+            int cell = row * clusterGrid + col;
+            
+            counts[cell]++;
+            sumLat[cell] += lat;
+            sumLng[cell] += lng;
+            if (types.get(cell) == null) {
+                types.set(cell, new TreeMap<>());
+            }
+            types.get(cell).merge(point.getType() != null ? point.getType() : "unknown", 1, Integer::sum);
+        }
+        
+        List<Map<String, Object>> clusters = new ArrayList<>();
+        for (int cell = 0; cell < cells; cell++) {
+            if (counts[cell] == 0) {
+                continue;
+            }
+            Map<String, Object> cluster = new HashMap<>();
+            cluster.put("lat", sumLat[cell] / counts[cell]);
+            cluster.put("lng", sumLng[cell] / counts[cell]);
+            cluster.put("count", counts[cell]);
+            cluster.put("types", types.get(cell));
+            clusters.add(cluster);
+        }
+        return clusters;
+    }
+    
+    private int cellIndex(double tileFraction) {
+        return Math.min(clusterGrid - 1, Math.max(0, (int) (tileFraction * clusterGrid)));
+    }
+    
+    private Map<String, Object> toMap(WifiPoint point) {
+        Map<String, Object> result = new HashMap<>();
+        result.put("id", point.getId());
+        result.put("name", point.getName());
+        result.put("type", point.getType());
+        result.put("lat", point.getLatitude());
+        result.put("lng", point.getLongitude());
+        result.put("address", point.getAddress());
+        result.put("coverage_radius", point.getCoverageRadius());
+        return result;
+    }
+    
+    /**
+     * Широта верхнего края строки тайлов y на масштабе z
+     */
+    static double tileLat(int y, int z) {
+        double n = Math.PI * (1 - 2.0 * y / Math.pow(2, z));
+        return Math.toDegrees(Math.atan(Math.sinh(n)));
+    }
+    
+    /**
+     * Долгота левого края столбца тайлов x на масштабе z
+     */
+    static double tileLng(int x, int z) {
+        return x / Math.pow(2, z) * 360 - 180;
+    }
+    
+    /**
+     * Координата Y в проекции Web Mercator от 0 (север) до 1 (юг)
+     */
+    private static double mercatorY(double lat) {
+        double radians = Math.toRadians(lat);
+        return (1 - Math.log(Math.tan(radians) + 1 / Math.cos(radians)) / Math.PI) / 2;
+    }
+    
+    private String etag(byte[] json) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(json);
+            return "\"" + HexFormat.of().formatHex(digest, 0, 10) + "\"";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    /**
+     * Готовый тайл: JSON и ETag (хэш JSON, поэтому не меняется, пока не меняются точки тайла)
+     */
+    public static class WifiTile {
+        private final byte[] body;
+        private final String etag;
+        
+        WifiTile(byte[] body, String etag) {
+            this.body = body;
+            this.etag = etag;
+        }
+        
+        public byte[] getBody() {
+            return body;
+        }
+        
+        public String getEtag() {
+            return etag;
+        }
+    }
+    
+    private static class TileCache {
+        final WifiPointSnapshot snapshot;
+        final TtlLruCache<String, WifiTile> tiles;
+        
+        TileCache(WifiPointSnapshot snapshot, TtlLruCache<String, WifiTile> tiles) {
+            this.snapshot = snapshot;
+            this.tiles = tiles;
+        }
+    }
+}
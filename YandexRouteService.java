@@ -1,26 +1,112 @@
 package ru.moscow.wifi.service;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.ResponseEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
+import ru.moscow.wifi.cache.TtlLruCache;
+import ru.moscow.wifi.util.PolylineUtil;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Сервис для работы с Яндекс Маршрутизатором API
+ *
+ * Базовые маршруты кэшируются по округлённым координатам A и B, одинаковые одновременные
+ * промахи объединяются в один запрос к маршрутизатору (single-flight). Запрос выполняется
+ * в отдельном пуле: если ответ не пришёл за yandex.api.timeout-ms, сразу возвращается
+ * простой маршрут, а пришедший позже ответ всё равно попадёт в кэш
+ *
+ * Геометрия ответа читается потоково (без построения дерева JSON), затем ломаная
+ * упрощается с допуском меньше радиуса покрытия и уплотняется до равномерных отрезков,
+ * чтобы проверка покрытия по сегментам получала ограниченное число вершин
  */
 @Service
 public class YandexRouteService {
+    private static final int COVERAGE_RADIUS = 50; // радиус покрытия Wi-Fi в метрах
+    // Отклонение ломаной на пятую часть радиуса почти не меняет покрытие маршрута
+    private static final double SIMPLIFY_TOLERANCE = COVERAGE_RADIUS / 5.0;
+    // Отрезки не длиннее двух радиусов: середина отрезка не дальше радиуса от его концов
+    private static final double DENSIFY_STEP = COVERAGE_RADIUS * 2.0;
+    
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
     
     @Value("${yandex.api.key:}")
     private String yandexApiKey;
     
-    private final RestTemplate restTemplate = new RestTemplate();
-    private static final String YANDEX_ROUTER_URL = "https://api.routing.yandex.net/v2/route";
+    // Адрес можно заменить на локальную заглушку для проверки
+    @Value("${yandex.api.url:https://api.routing.yandex.net/v2/route}")
+    private String yandexRouterUrl;
+    
+    @Value("${yandex.api.timeout-ms:1500}")
+    private long timeoutMs;
+    
+    @Value("${yandex.api.upstream-timeout-ms:5000}")
+    private int upstreamTimeoutMs;
+    
+    @Value("${yandex.api.max-concurrency:16}")
+    private int maxConcurrency;
+    
+    @Value("${yandex.route.max-points:1000}")
+    private int maxRoutePoints;
+    
+    @Value("${yandex.route.cache.decimals:4}")
+    private int cacheDecimals;
+    
+    @Value("${yandex.route.cache.max-size:5000}")
+    private int cacheMaxSize;
+    
+    @Value("${yandex.route.cache.ttl-seconds:3600}")
+    private long cacheTtlSeconds;
+    
+    private RestTemplate restTemplate;
+    private ThreadPoolExecutor executor;
+    private TtlLruCache<String, List<double[]>> cache;
+    
+    // Запросы к маршрутизатору, которые сейчас выполняются, по ключу кэша
+    private final Map<String, CompletableFuture<List<double[]>>> inFlight = new ConcurrentHashMap<>();
+    
+    private final AtomicLong upstreamCalls = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    
+    @PostConstruct
+    public void init() {
+        SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setConnectTimeout(upstreamTimeoutMs);
+        requestFactory.setReadTimeout(upstreamTimeoutMs);
+        restTemplate = new RestTemplate(requestFactory);
+        
+        AtomicInteger counter = new AtomicInteger();
+        executor = new ThreadPoolExecutor(maxConcurrency, maxConcurrency, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(maxConcurrency * 4), runnable -> {
+            Thread thread = new Thread(runnable, "yandex-router-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        
+        cache = new TtlLruCache<>(cacheMaxSize, cacheTtlSeconds * 1000);
+    }
     
     /**
      * Получить базовый маршрут от точки A до точки B
@@ -31,24 +117,153 @@ public class YandexRouteService {
      * @return список координат маршрута
      */
     public List<double[]> getBaseRoute(double fromLat, double fromLng, double toLat, double toLng) {
+        String key = cacheKey(fromLat, fromLng, toLat, toLng);
+        List<double[]> cached = cache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        
+        CompletableFuture<List<double[]>> request = new CompletableFuture<>();
+        CompletableFuture<List<double[]>> existing = inFlight.putIfAbsent(key, request);
+        if (existing != null) {
+            // Такой же запрос уже выполняется - ждём его результат
+            coalesced.incrementAndGet();
+            request = existing;
+        } else {
+            CompletableFuture<List<double[]>> started = request;
+            try {
+                executor.execute(() -> fetch(key, fromLat, fromLng, toLat, toLng, started));
+            } catch (RejectedExecutionException e) {
+                inFlight.remove(key, started);
+                System.err.println("Очередь запросов к маршрутизатору переполнена, используется простой маршрут");
+                return prepareRoute(getSimpleRoute(fromLat, fromLng, toLat, toLng));
+            }
+        }
+        
+        try {
+            return request.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            timeouts.incrementAndGet();
+            System.err.println("Маршрутизатор не ответил за " + timeoutMs + " мс, используется простой маршрут");
+        } catch (ExecutionException e) {
+            System.err.println("Ошибка получения маршрута от Яндекс: " + e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        
+        // Fallback: простой маршрут
+        return prepareRoute(getSimpleRoute(fromLat, fromLng, toLat, toLng));
+    }
+    
+    /**
+     * Запрос к маршрутизатору (выполняется в пуле executor)
+     * Успешный ответ сохраняется в кэш до того, как запрос снимается с учёта in-flight
+     */
+    private void fetch(String key, double fromLat, double fromLng, double toLat, double toLng,
+                       CompletableFuture<List<double[]>> request) {
         try {
-            String url = String.format("%s?apikey=%s&waypoints=%f,%f;%f,%f&mode=driving&format=json",
-                    YANDEX_ROUTER_URL, yandexApiKey, fromLat, fromLng, toLat, toLng);
+            upstreamCalls.incrementAndGet();
+            List<double[]> route = prepareRoute(requestRoute(fromLat, fromLng, toLat, toLng));
+            cache.put(key, route);
+            inFlight.remove(key, request);
+            request.complete(route);
+        } catch (Exception e) {
+            failures.incrementAndGet();
+            inFlight.remove(key, request);
+            request.completeExceptionally(e);
+        }
+    }
+    
+    private List<double[]> requestRoute(double fromLat, double fromLng, double toLat, double toLng) {
+        String url = yandexRouterUrl + "?apikey=" + yandexApiKey
+                + "&waypoints=" + fromLat + "," + fromLng + ";" + toLat + "," + toLng
+                + "&mode=driving&format=json";
+        
+        // Ошибочные статусы RestTemplate превращает в исключение до чтения тела
+        List<double[]> route = restTemplate.execute(url, HttpMethod.GET, null,
+                response -> parsePolyline(response.getBody()));
+        
+        if (route == null || route.size() < 2) {
+            throw new IllegalStateException("В ответе маршрутизатора нет геометрии маршрута");
+        }
+        return route;
+    }
+    
+    /**
+     * Потоковый разбор ответа: вершины из всех массивов "points" (route.legs[].steps[].polyline.points)
+     * по порядку, каждая вершина - [lat, lng]. Остальные поля пропускаются без разбора
+     */
+    private List<double[]> parsePolyline(InputStream body) throws IOException {
+        List<double[]> route = new ArrayList<>();
+        try (JsonParser parser = JSON_FACTORY.createParser(body)) {
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                if (token == JsonToken.FIELD_NAME && "points".equals(parser.currentName())) {
+                    if (parser.nextToken() == JsonToken.START_ARRAY) {
+                        readPoints(parser, route);
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            }
+        }
+        return route;
+    }
+    
+    private void readPoints(JsonParser parser, List<double[]> route) throws IOException {
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY && token != null) {
+            if (token != JsonToken.START_ARRAY) {
+                parser.skipChildren();
+                continue;
+            }
             
-            ResponseEntity<Map> response = restTemplate.getForEntity(url, Map.class);
+            double[] point = new double[2];
+            int count = 0;
+            while ((token = parser.nextToken()) != JsonToken.END_ARRAY && token != null) {
+                if (token.isNumeric() && count < 2) {
+                    point[count] = parser.getDoubleValue();
+                }
+                count++;
+                parser.skipChildren();
+            }
             
-            if (response.getStatusCode().is2xxSuccessful() && response.getBody() != null) {
-                Map<String, Object> body = response.getBody();
-                // TODO: Парсинг ответа от Яндекс API
-                // Пока возвращаем простой маршрут
-                return getSimpleRoute(fromLat, fromLng, toLat, toLng);
+            // Конец одного шага совпадает с началом следующего
+            double[] last = route.isEmpty() ? null : route.get(route.size() - 1);
+            if (count >= 2 && (last == null || last[0] != point[0] || last[1] != point[1])) {
+                route.add(point);
             }
-        } catch (Exception e) {
-            System.err.println("Ошибка получения маршрута от Яндекс: " + e.getMessage());
         }
-        
-        // Fallback: простой маршрут
-        return getSimpleRoute(fromLat, fromLng, toLat, toLng);
+    }
+    
+    /**
+     * Упростить ломаную и уплотнить её до отрезков не длиннее DENSIFY_STEP (не больше maxRoutePoints вершин)
+     */
+    private List<double[]> prepareRoute(List<double[]> route) {
+        List<double[]> simplified = PolylineUtil.simplify(route, SIMPLIFY_TOLERANCE);
+        return PolylineUtil.densify(simplified, DENSIFY_STEP, maxRoutePoints);
+    }
+    
+    /**
+     * Ключ кэша: координаты A и B, округлённые до cacheDecimals знаков (4 знака - около 10 м)
+     */
+    private String cacheKey(double fromLat, double fromLng, double toLat, double toLng) {
+        double scale = Math.pow(10, cacheDecimals);
+        return Math.round(fromLat * scale) + "," + Math.round(fromLng * scale) + ";"
+                + Math.round(toLat * scale) + "," + Math.round(toLng * scale);
+    }
+    
+    /**
+     * Счётчики кэша и запросов к маршрутизатору
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = cache.getStats();
+        stats.put("upstream_calls", upstreamCalls.get());
+        stats.put("coalesced", coalesced.get());
+        stats.put("timeouts", timeouts.get());
+        stats.put("failures", failures.get());
+        stats.put("in_flight", inFlight.size());
+        return stats;
     }
     
     /**